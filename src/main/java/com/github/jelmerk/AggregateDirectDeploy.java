@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implementation of {@link org.gradle.api.Task} that direct deploys the plugins of many projects at once, for
+ * instance for a release.
+ * <p/>
+ * The plugins of the {@link DirectDeploy} tasks are grouped by plugin type and deployer settings. Every group is
+ * deployed by a single run of the Liferay deployer, which saves starting the deployer and setting up its tlds and
+ * jars for every plugin. Only tasks with the same deployer classpath share a run.
+ *
+ * @author Jelmer Kuperus
+ */
+public class AggregateDirectDeploy extends DefaultTask {
+
+    private static final String WAR_FILE_PATTERN = "*.war";
+
+    private Set<DirectDeploy> directDeploys = new LinkedHashSet<DirectDeploy>();
+
+    /**
+     * Performs the aggregate direct deploy task.
+     */
+    @TaskAction
+    public void directDeployAll() {
+        int groupNumber = 0;
+        for (List<DirectDeploy> group : getGroups().values()) {
+            File baseDir = new File(getTemporaryDir(), "group-" + groupNumber++);
+            DirectorySync.delete(baseDir);
+            baseDir.mkdirs();
+
+            // the deployer deploys every plugin in a single folder, so the plugins of the group are linked into one
+
+            Map<String, DirectDeploy> tasksByFileName = new HashMap<String, DirectDeploy>();
+            for (DirectDeploy directDeploy : group) {
+                File warFile = directDeploy.getWarFile();
+
+                DirectDeploy other = tasksByFileName.put(warFile.getName(), directDeploy);
+                if (other != null) {
+                    throw new InvalidUserDataException("Both " + other.getPath() + " and " + directDeploy.getPath() +
+                            " deploy a plugin named " + warFile.getName());
+                }
+
+                try {
+                    DirectorySync.link(warFile, new File(baseDir, warFile.getName()));
+                } catch (IOException e) {
+                    throw new TaskExecutionException(this, e);
+                }
+            }
+
+            DirectDeploy first = group.get(0);
+            getLogger().lifecycle("Deploying {} {} plugins to {}", group.size(), first.getPluginType(),
+                    first.getDestDir());
+
+            // the class loader of a group is cached for this task, so the class loader of the project is kept
+
+            first.deploy(baseDir, WAR_FILE_PATTERN, getPath() + ":" + baseDir.getName());
+        }
+    }
+
+    private Map<String, List<DirectDeploy>> getGroups() {
+        Map<String, List<DirectDeploy>> groups = new LinkedHashMap<String, List<DirectDeploy>>();
+        for (DirectDeploy directDeploy : getDirectDeploys()) {
+
+            // every setting that ends up as a deployer property or argument must be the same within a group
+
+            StringBuilder key = new StringBuilder();
+            key.append(directDeploy.getPluginType()).append(';').append(directDeploy.getAppServerType()).append(';')
+                    .append(directDeploy.getAppServerDir().getAbsolutePath()).append(';')
+                    .append(directDeploy.getDestDir().getAbsolutePath()).append(';')
+                    .append(directDeploy.getCustomPortletXML()).append(';').append(directDeploy.getInProcess());
+
+            // jars of different versions on one class loader would clash, so the classpath has to match as well
+
+            for (File file : directDeploy.getClassPath()) {
+                key.append(';').append(file.getAbsolutePath());
+            }
+
+            List<DirectDeploy> group = groups.get(key.toString());
+            if (group == null) {
+                group = new ArrayList<DirectDeploy>();
+                groups.put(key.toString(), group);
+            }
+            group.add(directDeploy);
+        }
+        return groups;
+    }
+
+    /**
+     * Returns the direct deploy tasks whose plugins are deployed.
+     *
+     * @return the direct deploy tasks whose plugins are deployed
+     */
+    public Set<DirectDeploy> getDirectDeploys() {
+        return directDeploys;
+    }
+
+    /**
+     * Sets the direct deploy tasks whose plugins are deployed. The plugins themselves are not built by this task,
+     * so it should also depend on the tasks that build them.
+     * By default the direct deploy tasks of all projects that apply a Liferay plugin are added
+     *
+     * @param directDeploys the direct deploy tasks whose plugins are deployed
+     */
+    public void setDirectDeploys(Set<DirectDeploy> directDeploys) {
+        this.directDeploys = directDeploys;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * A folder that holds copies of the Liferay base themes, shared by all theme projects and builds that use it.
+ * <p/>
+ * Every combination of portal folder, base theme and theme type gets one entry, which holds a version for every
+ * state of the files of the base theme. A version is filled in a temporary folder and then moved in place, so
+ * readers never see a partially filled version, and it never changes after that. When the files of the base theme
+ * change, for instance because the portal was upgraded, a new version is added rather than the old one replaced,
+ * because other builds may still be linking files from the old one. Versions that were not used for a day are
+ * deleted.
+ *
+ * @author Jelmer Kuperus
+ */
+final class BaseThemeCache {
+
+    private static final String TEMP_DIR_PREFIX = ".tmp-";
+
+    private static final String FILES_DIR = "files";
+    private static final String FINGERPRINT_FILE = "fingerprint.properties";
+    private static final String FINGERPRINT_KEY = "fingerprint";
+
+    private static final long MAX_UNUSED_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final File dir;
+
+    /**
+     * Constructs a new BaseThemeCache.
+     *
+     * @param dir the folder that holds the base themes
+     */
+    BaseThemeCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the cached copies of the files of a base theme, copying them into the cache first when needed.
+     *
+     * @param portalDir the exploded Liferay web application the base theme is part of
+     * @param themeName the name of the base theme
+     * @param themeType the theme type
+     * @param sources   the files of the base theme by their relative path in the merged theme
+     * @return the cached files by their relative path in the merged theme
+     * @throws IOException when the files cannot be copied into the cache
+     */
+    Map<String, File> get(File portalDir, String themeName, String themeType, Map<String, File> sources)
+            throws IOException {
+
+        File entryDir = new File(dir, Checksums.checksum(portalDir.getAbsolutePath() + ';' + themeName + ';'
+                + themeType));
+
+        String fingerprint = createFingerprint(sources);
+        File versionDir = new File(entryDir, fingerprint);
+        if (fingerprint.equals(readFingerprint(versionDir))) {
+            new File(versionDir, FINGERPRINT_FILE).setLastModified(System.currentTimeMillis());
+        } else {
+            fill(versionDir, sources, fingerprint);
+        }
+
+        deleteUnusedVersions(entryDir, versionDir);
+
+        Map<String, File> cachedFiles = new TreeMap<String, File>();
+        for (String path : sources.keySet()) {
+            cachedFiles.put(path, new File(versionDir, FILES_DIR + '/' + path));
+        }
+        return cachedFiles;
+    }
+
+    private void fill(File versionDir, Map<String, File> sources, String fingerprint) throws IOException {
+        File tempDir = new File(dir, TEMP_DIR_PREFIX + UUID.randomUUID());
+        try {
+            for (Map.Entry<String, File> source : sources.entrySet()) {
+                DirectorySync.copy(source.getValue(), new File(tempDir, FILES_DIR + '/' + source.getKey()));
+            }
+            writeFingerprint(tempDir, fingerprint);
+
+            versionDir.getParentFile().mkdirs();
+
+            try {
+                Files.move(tempDir.toPath(), versionDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempDir.toPath(), versionDir.toPath());
+            } catch (IOException e) {
+
+                // another build filled the version first, the version is named after its files so they are the same
+
+                if (!fingerprint.equals(readFingerprint(versionDir))) {
+                    throw e;
+                }
+            }
+        } finally {
+            DirectorySync.delete(tempDir);
+        }
+    }
+
+    private void deleteUnusedVersions(File entryDir, File versionDir) {
+        File[] children = entryDir.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        long minLastUsed = System.currentTimeMillis() - MAX_UNUSED_MILLIS;
+        for (File child : children) {
+            File fingerprintFile = new File(child, FINGERPRINT_FILE);
+            long lastUsed = fingerprintFile.isFile() ? fingerprintFile.lastModified() : child.lastModified();
+
+            // the version is moved out of the entry first, so no build picks it up while it is being deleted
+
+            if (!child.equals(versionDir) && lastUsed < minLastUsed) {
+                File oldDir = new File(dir, TEMP_DIR_PREFIX + UUID.randomUUID());
+                if (child.renameTo(oldDir)) {
+                    DirectorySync.delete(oldDir);
+                }
+            }
+        }
+    }
+
+    private static String createFingerprint(Map<String, File> sources) {
+        MessageDigest digest = Checksums.newDigest();
+        for (Map.Entry<String, File> source : sources.entrySet()) {
+            File file = source.getValue();
+            Checksums.update(digest, source.getKey() + ':' + file.length() + ':' + file.lastModified() + ';');
+        }
+        return Checksums.toHex(digest.digest());
+    }
+
+    private static String readFingerprint(File entryDir) {
+        File fingerprintFile = new File(entryDir, FINGERPRINT_FILE);
+        if (!fingerprintFile.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(fingerprintFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+
+            // the entry is filled again
+
+            return null;
+        }
+        return properties.getProperty(FINGERPRINT_KEY);
+    }
+
+    private static void writeFingerprint(File entryDir, String fingerprint) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(FINGERPRINT_KEY, fingerprint);
+
+        entryDir.mkdirs();
+
+        OutputStream out = new FileOutputStream(new File(entryDir, FINGERPRINT_FILE));
+        try {
+            properties.store(out, "base theme cache entry");
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -16,17 +16,25 @@
 
 package com.github.jelmerk;
 
-import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Copy;
-import org.apache.tools.ant.taskdefs.Echo;
-import org.apache.tools.ant.taskdefs.Java;
 import org.apache.tools.ant.taskdefs.Mkdir;
-import org.apache.tools.ant.types.Path;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.file.ConfigurableFileTree;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.*;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
  * Implementation of {@link org.gradle.api.Task} that generates a liferay service
@@ -36,6 +44,8 @@ import java.io.File;
  */
 public class BuildService extends DefaultTask {
 
+    private static final String MODEL_HINTS_PATH = "META-INF/portlet-model-hints.xml";
+
     private FileCollection classpath;
 
     private String pluginName;
@@ -48,178 +58,528 @@ public class BuildService extends DefaultTask {
     private File jalopyInputFile;
     private File serviceInputFile;
 
+    private Boolean useWorker;
+
+    private Integer maxParallelRuns;
+
+    private File generatedImplSrcDir;
+    private File generatedResourceDir;
+
+    /**
+     * Constructs a new BuildService.
+     */
+    public BuildService() {
+
+        // which folders are inputs and outputs depends on whether the generated code is kept apart from the
+        // hand written code, so they cannot be declared with annotations
+
+        getInputs().files(new Callable<List<File>>() {
+            @Override
+            public List<File> call() {
+                return getInputsToCheck();
+            }
+        });
+        getOutputs().files(new Callable<List<File>>() {
+            @Override
+            public List<File> call() {
+                return getOutputsToCheck();
+            }
+        });
+    }
+
     /**
      * Performs the build service task.
      */
     @TaskAction
     public void buildService() {
+        List<String> args = createServiceBuilderArgs();
+
+        File fingerprintFile = new File(getWorkingDir(), "fingerprint.properties");
+        File generatedFilesFile = new File(getWorkingDir(), "generated.properties");
+        ServiceModelFingerprint fingerprint = calculateFingerprint(args);
+
+        if (isUpToDate(fingerprint, fingerprintFile, generatedFilesFile)) {
+            getLogger().info("Service model, jalopy file, classpath and implementation classes are unchanged, "
+                    + "skipping service builder");
+            return;
+        }
+
+        List<StagedDir> stagedDirs = getStagedDirs();
+        checkForStaleGeneratedFiles(stagedDirs, generatedFilesFile);
+
+        fingerprintFile.delete();
+        generatedFilesFile.delete();
+
         File workingDir = prepareWorkingDir();
         createOutputDirectories();
-        String processOutput = buildService(workingDir);
-        echoOutput(processOutput);
 
-        if (didNotExecuteSuccessfully(processOutput)) {
-            throw new TaskExecutionException(this, null);
+        stage(stagedDirs);
+
+        // staged files keep their timestamps, so the files servicebuilder writes are the ones newer than this
+
+        long startTime = System.currentTimeMillis() / 1000 * 1000;
+
+        ServiceBuilderOutputParser parser = null;
+
+        acquirePermit();
+        try {
+            if (Boolean.TRUE.equals(getUseWorker())) {
+                parser = buildServiceInWorker(args);
+            }
+
+            if (parser == null) {
+                parser = buildService(workingDir, args);
+            }
+        } finally {
+            ServiceBuilderPermits.release();
+        }
+
+        if (parser.hasFailed()) {
+            throw new TaskExecutionException(this, new GradleException(parser.getFailureSummary()));
         }
+
+        List<File> generatedFiles = findGeneratedFiles(stagedDirs, startTime);
+
+        publish(stagedDirs);
+
+        storeGeneratedFiles(generatedFiles, generatedFilesFile);
+
+        // servicebuilder creates implementation classes for new entities, so fingerprint what it left behind
+
+        storeFingerprint(calculateFingerprint(args), fingerprintFile);
     }
 
-    private boolean didNotExecuteSuccessfully(String processOutput) {
-        return processOutput != null && processOutput.contains("Error");
+    private void acquirePermit() {
+        int maxParallelRuns = getMaxParallelRuns() != null ? getMaxParallelRuns()
+                : ServiceBuilderPermits.defaultPermits();
+        try {
+            ServiceBuilderPermits.acquire(maxParallelRuns);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TaskExecutionException(this, e);
+        }
     }
 
-    private void createOutputDirectories() {
-        Mkdir mkServicebuilderMainSourceSetDir = new Mkdir();
-        mkServicebuilderMainSourceSetDir.setDir(getImplSrcDir());
-        mkServicebuilderMainSourceSetDir.execute();
+    private File getWorkingDir() {
+        return new File(getProject().getBuildDir(), "servicebuilder/" + getName());
+    }
 
-        Mkdir mkSqlDir = new Mkdir();
-        mkSqlDir.setDir(new File(getWebappSrcDir(), "/WEB-INF/sql"));
-        mkSqlDir.execute();
+    private File getStagingDir() {
+        return new File(getWorkingDir(), "staging");
     }
 
-    private File prepareWorkingDir() {
+    private List<StagedDir> getStagedDirs() {
+        File stagingDir = getStagingDir();
+
+        List<StagedDir> stagedDirs = new ArrayList<StagedDir>();
+        stagedDirs.add(new StagedDir(getApiSrcDir(), new File(stagingDir, "api")));
+        stagedDirs.add(new StagedDir(getImplSrcDir(), getGeneratedImplSrcDir(), new File(stagingDir, "impl"),
+                new GeneratedImplFileSpec()));
+        stagedDirs.add(new StagedDir(getResourceDir(), getGeneratedResourceDir(), new File(stagingDir, "resources"),
+                new GeneratedResourceFileSpec()));
+        stagedDirs.add(new StagedDir(new File(getWebappSrcDir(), "WEB-INF/sql"), new File(stagingDir, "sql")));
+        stagedDirs.add(new StagedDir(new File(getWebappSrcDir(), "js"), new File(stagingDir, "js")));
+        return stagedDirs;
+    }
 
-        // the Jalopy file to use is not a parameter you can pass to service builder it just looks at a number
-        // of predefined locations on the filesystem. So we set up a working dir where we mimic the layout
-        // servicebuilder expects as a workaround
+    private void stage(List<StagedDir> stagedDirs) {
 
-        File workingDir = getProject().mkdir(new File(getProject().getBuildDir(), "servicebuilder"));
-        File miscDir = getProject().mkdir(new File(workingDir, "misc"));
+        // servicebuilder rewrites every file it generates, even when nothing changed. We let it write to a copy
+        // of the output folders so we can tell which files it really changed
 
-        File jalopyFile = new File(miscDir, "jalopy.xml");
+        try {
+            for (StagedDir stagedDir : stagedDirs) {
+                DirectorySync.mirror(stagedDir.getDirs(), stagedDir.stagingDir);
+                stagedDir.stagedFiles = DirectorySync.listFiles(stagedDir.stagingDir);
+            }
+        } catch (IOException e) {
+            throw new TaskExecutionException(this, e);
+        }
+    }
 
-        if (getJalopyInputFile() != null) {
-            Copy copy = new Copy();
-            copy.setProject(getAnt().getProject());
-            copy.setFile(getJalopyInputFile());
-            copy.setTofile(jalopyFile);
-            copy.setOverwrite(true);
-            copy.execute();
+    private void publish(List<StagedDir> stagedDirs) {
+        int changes = 0;
+        try {
+            for (StagedDir stagedDir : stagedDirs) {
+                changes += DirectorySync.publishChanges(stagedDir.stagingDir, stagedDir, stagedDir.stagedFiles);
+            }
+        } catch (IOException e) {
+            throw new TaskExecutionException(this, e);
         }
+        getLogger().info("Service builder changed {} files", changes);
 
-        return workingDir;
+        for (StagedDir stagedDir : stagedDirs) {
+            for (String path : stagedDir.getMisplacedFiles()) {
+                getLogger().warn("{} is generated into {}, remove it from {}", path, stagedDir.generatedDir,
+                        stagedDir.dir);
+            }
+        }
     }
 
-    private String buildService(File workingDir) {
-        Java javaTask = new Java();
-        javaTask.setTaskName("service builder");
-        javaTask.setClassname("com.liferay.portal.tools.servicebuilder.ServiceBuilder");
+    private void checkForStaleGeneratedFiles(List<StagedDir> stagedDirs, File generatedFilesFile) {
+        if (!isGeneratedSourceLayout()) {
+            return;
+        }
+
+        // files an earlier run generated into the source folders, before generated source folders were used,
+        // would be compiled next to the files that are now generated into the build folder
 
-        javaTask.setFork(true); // must fork or the working dir we set below is not picked up
-        javaTask.setDir(workingDir);
-        javaTask.setOutputproperty("service.test.output");
+        StringBuilder staleFiles = new StringBuilder();
+        for (String path : FileManifest.load(generatedFilesFile).getPaths()) {
+            File file = new File(path);
+            if (file.isFile() && isStaleGeneratedFile(file, stagedDirs)) {
+                staleFiles.append(System.getProperty("line.separator")).append(path);
+            }
+        }
 
-        Project antProject = getAnt().getAntProject();
+        if (staleFiles.length() > 0) {
+            throw new InvalidUserDataException("The generated code is written to generated source folders now, " +
+                    "please delete these files that were generated into the source folders before:" + staleFiles);
+        }
+    }
 
-        Path antClassPath = new Path(antProject);
+    private static boolean isStaleGeneratedFile(File file, List<StagedDir> stagedDirs) {
+        for (StagedDir stagedDir : stagedDirs) {
+            if (stagedDir.generatedDir != null && getRelativePath(file, stagedDir.generatedDir) != null) {
+                return false;
+            }
 
-        for (File dep : getClasspath()) {
-            antClassPath.createPathElement()
-                    .setLocation(dep);
+            String relativePath = getRelativePath(file, stagedDir.dir);
+            if (relativePath != null) {
+                return stagedDir.generatedDir != null && stagedDir.generatedFileSpec.isGenerated(relativePath);
+            }
         }
 
-        antClassPath.createPathElement().setLocation(getResourceDir()); //Needed or portlet-model-hints.xml will be overwritten
+        // a file outside of every output folder was written to a folder this run no longer writes to, such as
+        // the service api folder in the source tree
 
-        javaTask.setProject(antProject);
-        javaTask.setClasspath(antClassPath);
+        return true;
+    }
 
-        javaTask.createArg()
-                .setLine("-Dexternal-properties=com/liferay/portal/tools/dependencies/portal-tools.properties");
+    private static String getRelativePath(File file, File dir) {
+        String dirPath = dir.getAbsolutePath() + File.separator;
+        if (!file.getAbsolutePath().startsWith(dirPath)) {
+            return null;
+        }
+        return file.getAbsolutePath().substring(dirPath.length()).replace(File.separatorChar, '/');
+    }
 
-        javaTask.createArg()
-                .setLine("-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.Log4JLogger");
+    private boolean isGeneratedSourceLayout() {
+        return getGeneratedImplSrcDir() != null && getGeneratedResourceDir() != null;
+    }
 
-        javaTask.createArg()
-                .setLine("service.input.file=" + getServiceInputFile().getPath());
+    private List<File> getInputsToCheck() {
+        List<File> inputs = new ArrayList<File>();
+        if (isGeneratedSourceLayout()) {
+
+            // only the classes servicebuilder parses and the model hints are read, hand edits to any other
+            // source file do not invalidate the generated code
+
+            ConfigurableFileTree parsedImplFiles = getProject().fileTree(getImplSrcDir());
+            parsedImplFiles.include("**/service/impl/*ServiceImpl.java");
+            parsedImplFiles.include("**/model/impl/*Impl.java");
+            parsedImplFiles.include("**/service/persistence/*FinderImpl.java");
+            parsedImplFiles.exclude("**/model/impl/*BaseImpl.java");
+            parsedImplFiles.exclude("**/model/impl/*ModelImpl.java");
+            inputs.addAll(parsedImplFiles.getFiles());
+
+            File modelHintsFile = new File(getResourceDir(), MODEL_HINTS_PATH);
+            if (modelHintsFile.isFile()) {
+                inputs.add(modelHintsFile);
+            }
+        } else {
+            inputs.add(getImplSrcDir());
+            inputs.add(getResourceDir());
+        }
+        return inputs;
+    }
 
-        javaTask.createArg()
-                .setLine("service.hbm.file="
-                        + new File(getResourceDir(), "META-INF/portlet-hbm.xml").getPath());
+    private List<File> getOutputsToCheck() {
+        List<File> outputs = new ArrayList<File>();
+        outputs.add(getApiSrcDir());
+        if (isGeneratedSourceLayout()) {
+            outputs.add(getGeneratedImplSrcDir());
+            outputs.add(getGeneratedResourceDir());
+            outputs.add(new File(getWebappSrcDir(), "WEB-INF/sql"));
+            outputs.add(new File(getWebappSrcDir(), "js/service.js"));
+        } else {
+            outputs.add(getImplSrcDir());
+            outputs.add(getResourceDir());
+            outputs.add(getWebappSrcDir());
+        }
+        return outputs;
+    }
 
-        javaTask.createArg()
-                .setLine("service.orm.file="
-                        + new File(getResourceDir(), "META-INF/portlet-orm.xml").getPath());
+    private ServiceModelFingerprint calculateFingerprint(List<String> args) {
+        try {
+            return ServiceModelFingerprint.calculate(getServiceInputFile(), getJalopyInputFile(),
+                    getClasspath().getFiles(), getImplSrcDir(), args);
+        } catch (IOException e) {
+            throw new TaskExecutionException(this, e);
+        }
+    }
 
-        javaTask.createArg()
-                .setLine("service.model.hints.file="
-                        + new File(getResourceDir(), "META-INF/portlet-model-hints.xml").getPath());
+    private boolean isUpToDate(ServiceModelFingerprint fingerprint, File fingerprintFile, File generatedFilesFile) {
+        ServiceModelFingerprint previous;
+        try {
+            previous = ServiceModelFingerprint.load(fingerprintFile);
+        } catch (IOException e) {
+            getLogger().info("Unable to read the previous service builder fingerprint", e);
+            return false;
+        }
 
-        javaTask.createArg()
-                .setLine("service.spring.file="
-                        + new File(getResourceDir(), "META-INF/portlet-spring.xml").getPath());
+        if (previous == null) {
+            return false;
+        }
 
-        javaTask.createArg()
-                .setLine("service.spring.base.file="
-                        + new File(getResourceDir(), "META-INF/base-spring.xml").getPath());
+        File generatedResourceDir = isGeneratedSourceLayout() ? getGeneratedResourceDir() : getResourceDir();
+        if (!new File(generatedResourceDir, "META-INF/portlet-spring.xml").isFile()) {
+            return false;
+        }
 
-        javaTask.createArg()
-                .setLine("service.spring.cluster.file="
-                        + new File(getResourceDir(), "META-INF/cluster-spring.xml").getPath());
+        if (fingerprint.equals(previous)) {
+            return areGeneratedFilesUnchanged(generatedFilesFile);
+        }
 
-        javaTask.createArg()
-                .setLine("service.spring.dynamic.data.source.file="
-                        + new File(getResourceDir(), "META-INF/dynamic-data-source-spring.xml").getPath());
+        Set<String> changedEntities = fingerprint.getChangedEntities(previous);
+        if (!changedEntities.isEmpty()) {
+            getLogger().info("Entities changed since the last service builder run: {}", changedEntities);
+        }
+        return false;
+    }
 
-        javaTask.createArg()
-                .setLine("service.spring.hibernate.file="
-                        + new File(getResourceDir(), "META-INF/hibernate-spring.xml").getPath());
+    private boolean areGeneratedFilesUnchanged(File generatedFilesFile) {
+        FileManifest generatedFiles = FileManifest.load(generatedFilesFile);
+        if (generatedFiles.getPaths().isEmpty()) {
+            return false;
+        }
 
-        javaTask.createArg()
-                .setLine("service.spring.infrastructure.file="
-                        + new File(getResourceDir(), "META-INF/infrastructure-spring.xml").getPath());
+        for (String path : generatedFiles.getPaths()) {
+            if (!generatedFiles.isUpToDate(path, new File(path))) {
+                getLogger().info("Generated file {} was changed or deleted since the last service builder run", path);
+                return false;
+            }
+        }
+        return true;
+    }
 
-        javaTask.createArg()
-                .setLine("service.spring.shard.data.source.file="
-                        + new File(getResourceDir(), "META-INF/shard-data-source-spring.xml").getPath());
+    private List<File> findGeneratedFiles(List<StagedDir> stagedDirs, long startTime) {
 
-        javaTask.createArg()
-                .setLine("service.api.dir=" + getApiSrcDir().getPath());
+        // publishing aligns the timestamps of unchanged files with the published ones, so look before publishing
 
-        javaTask.createArg()
-                .setLine("service.impl.dir=" + getImplSrcDir().getPath());
+        List<File> generatedFiles = new ArrayList<File>();
+        for (StagedDir stagedDir : stagedDirs) {
+            for (String path : DirectorySync.listFiles(stagedDir.stagingDir)) {
+                if (new File(stagedDir.stagingDir, path).lastModified() >= startTime) {
+                    generatedFiles.add(new File(stagedDir.getTargetDir(path), path));
+                }
+            }
+        }
+        return generatedFiles;
+    }
 
-        javaTask.createArg()
-                .setLine("service.json.file=" + new File(getWebappSrcDir(), "js/service.js").getPath());
+    private void storeGeneratedFiles(List<File> generatedFiles, File generatedFilesFile) {
+        FileManifest manifest = FileManifest.load(generatedFilesFile);
+        for (File generatedFile : generatedFiles) {
+            manifest.put(generatedFile.getAbsolutePath(), generatedFile);
+        }
 
-        javaTask.createArg()
-                .setLine("service.sql.dir=" + new File(getWebappSrcDir(), "WEB-INF/sql").getPath());
+        try {
+            manifest.store(generatedFilesFile);
+        } catch (IOException e) {
+            getLogger().warn("Unable to store the list of generated files", e);
+        }
+    }
 
-        javaTask.createArg()
-                .setLine("service.sql.file=tables.sql");
+    private void storeFingerprint(ServiceModelFingerprint fingerprint, File fingerprintFile) {
+        try {
+            fingerprint.store(fingerprintFile);
+        } catch (IOException e) {
+            getLogger().warn("Unable to store the service builder fingerprint", e);
+        }
+    }
 
-        javaTask.createArg()
-                .setLine("service.sql.indexes.file=indexes.sql");
+    private void createOutputDirectories() {
+        Mkdir mkServicebuilderMainSourceSetDir = new Mkdir();
+        mkServicebuilderMainSourceSetDir.setDir(getImplSrcDir());
+        mkServicebuilderMainSourceSetDir.execute();
 
-        javaTask.createArg()
-                .setLine("service.sql.indexes.properties.file=indexes.properties");
+        Mkdir mkSqlDir = new Mkdir();
+        mkSqlDir.setDir(new File(getWebappSrcDir(), "/WEB-INF/sql"));
+        mkSqlDir.execute();
 
-        javaTask.createArg()
-                .setLine("service.sql.sequences.file=sequences.sql");
+        Mkdir mkStagedImplDir = new Mkdir();
+        mkStagedImplDir.setDir(new File(getStagingDir(), "impl"));
+        mkStagedImplDir.execute();
 
-        javaTask.createArg()
-                .setLine("service.auto.namespace.tables=true");
+        Mkdir mkStagedSqlDir = new Mkdir();
+        mkStagedSqlDir.setDir(new File(getStagingDir(), "sql"));
+        mkStagedSqlDir.execute();
+    }
 
-        javaTask.createArg()
-                .setLine("service.bean.locator.util=com.liferay.util.bean.PortletBeanLocatorUtil");
+    private File prepareWorkingDir() {
 
-        javaTask.createArg()
-                .setLine("service.props.util=com.liferay.util.service.ServiceProps");
+        // the Jalopy file to use is not a parameter you can pass to service builder it just looks at a number
+        // of predefined locations on the filesystem. So we set up a working dir where we mimic the layout
+        // servicebuilder expects as a workaround
 
-        javaTask.createArg()
-                .setLine("service.plugin.name=" + getPluginName());
+        File workingDir = getProject().mkdir(getWorkingDir());
+        File miscDir = getProject().mkdir(new File(workingDir, "misc"));
 
-        //javaTask.createJvmarg().setLine("-Xdebug -Xrunjdwp:transport=dt_socket,server=y,suspend=y,address=5006");
+        File jalopyFile = new File(miscDir, "jalopy.xml");
+
+        if (getJalopyInputFile() == null) {
+
+            // do not let a previously staged file keep formatting the generated code
+
+            jalopyFile.delete();
+        } else if (!hasSameContent(getJalopyInputFile(), jalopyFile)) {
+            Copy copy = new Copy();
+            copy.setProject(getAnt().getProject());
+            copy.setFile(getJalopyInputFile());
+            copy.setTofile(jalopyFile);
+            copy.setOverwrite(true);
+            copy.execute();
+        }
+
+        return workingDir;
+    }
+
+    private boolean hasSameContent(File file, File otherFile) {
+        try {
+            return DirectorySync.hasSameContent(file, otherFile);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private ServiceBuilderOutputParser buildServiceInWorker(List<String> args) {
+        List<File> workerClasspath = getServiceBuilderClasspath();
+
+        ServiceBuilderOutputParser parser = new ServiceBuilderOutputParser(getLogger());
+
+        ServiceBuilderWorker worker;
+        try {
+            worker = ServiceBuilderWorker.obtain(workerClasspath);
+        } catch (IOException e) {
+            getLogger().warn("Unable to start a service builder worker, falling back to a forked service builder", e);
+            return null;
+        }
+
+        try {
+            int exitStatus = worker.execute(getJalopyInputFile(), args, parser);
+            parser.finish(exitStatus);
+            return parser;
+        } catch (IOException e) {
+            getLogger().warn("Service builder worker failed, falling back to a forked service builder", e);
+            ServiceBuilderWorker.discard(worker);
+            return null;
+        } finally {
+            worker.release();
+        }
+    }
 
-        javaTask.execute();
+    private ServiceBuilderOutputParser buildService(File workingDir, List<String> args) {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        command.add("-cp");
+        command.add(toClasspathString(getServiceBuilderClasspath()));
+        //command.add("-Xdebug -Xrunjdwp:transport=dt_socket,server=y,suspend=y,address=5006");
+        command.add(ServiceBuilderWorkerMain.SERVICE_BUILDER_CLASS_NAME);
+        command.addAll(args);
+
+        ServiceBuilderOutputParser parser = new ServiceBuilderOutputParser(getLogger());
+
+        // the working dir must be set on the process or the jalopy file we staged in it is not picked up
+
+        try {
+            Process process = new ProcessBuilder(command)
+                    .directory(workingDir)
+                    .redirectErrorStream(true)
+                    .start();
+
+            process.getOutputStream().close();
+
+            BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            try {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    parser.processLine(line);
+                }
+            } finally {
+                output.close();
+            }
+
+            parser.finish(process.waitFor());
+        } catch (IOException e) {
+            throw new TaskExecutionException(this, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TaskExecutionException(this, e);
+        }
+
+        return parser;
+    }
+
+    private List<File> getServiceBuilderClasspath() {
+        List<File> classpath = new ArrayList<File>(getClasspath().getFiles());
+        classpath.add(new File(getStagingDir(), "resources")); //Needed or portlet-model-hints.xml will be overwritten
+        return classpath;
+    }
 
-        return antProject.getProperty("service.test.output");
+    private String toClasspathString(List<File> classpath) {
+        StringBuilder classpathString = new StringBuilder();
+        for (File file : classpath) {
+            if (classpathString.length() > 0) {
+                classpathString.append(File.pathSeparatorChar);
+            }
+            classpathString.append(file.getAbsolutePath());
+        }
+        return classpathString.toString();
     }
 
-    private void echoOutput(String processOutput) {
-        Echo echo = new Echo();
-        //echo.setProject(getAnt().getAntProject());
-        echo.setMessage(processOutput);
-        echo.execute();
+    private List<String> createServiceBuilderArgs() {
+        File stagingDir = getStagingDir();
+        File resourceDir = new File(stagingDir, "resources");
+
+        List<String> args = new ArrayList<String>();
+
+        args.add("-Dexternal-properties=com/liferay/portal/tools/dependencies/portal-tools.properties");
+        args.add("-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.Log4JLogger");
+
+        args.add("service.input.file=" + getServiceInputFile().getPath());
+
+        args.add("service.hbm.file=" + new File(resourceDir, "META-INF/portlet-hbm.xml").getPath());
+        args.add("service.orm.file=" + new File(resourceDir, "META-INF/portlet-orm.xml").getPath());
+        args.add("service.model.hints.file="
+                + new File(resourceDir, MODEL_HINTS_PATH).getPath());
+        args.add("service.spring.file=" + new File(resourceDir, "META-INF/portlet-spring.xml").getPath());
+        args.add("service.spring.base.file=" + new File(resourceDir, "META-INF/base-spring.xml").getPath());
+        args.add("service.spring.cluster.file="
+                + new File(resourceDir, "META-INF/cluster-spring.xml").getPath());
+        args.add("service.spring.dynamic.data.source.file="
+                + new File(resourceDir, "META-INF/dynamic-data-source-spring.xml").getPath());
+        args.add("service.spring.hibernate.file="
+                + new File(resourceDir, "META-INF/hibernate-spring.xml").getPath());
+        args.add("service.spring.infrastructure.file="
+                + new File(resourceDir, "META-INF/infrastructure-spring.xml").getPath());
+        args.add("service.spring.shard.data.source.file="
+                + new File(resourceDir, "META-INF/shard-data-source-spring.xml").getPath());
+
+        args.add("service.api.dir=" + new File(stagingDir, "api").getPath());
+        args.add("service.impl.dir=" + new File(stagingDir, "impl").getPath());
+        args.add("service.json.file=" + new File(stagingDir, "js/service.js").getPath());
+        args.add("service.sql.dir=" + new File(stagingDir, "sql").getPath());
+        args.add("service.sql.file=tables.sql");
+        args.add("service.sql.indexes.file=indexes.sql");
+        args.add("service.sql.indexes.properties.file=indexes.properties");
+        args.add("service.sql.sequences.file=sequences.sql");
+        args.add("service.auto.namespace.tables=true");
+        args.add("service.bean.locator.util=com.liferay.util.bean.PortletBeanLocatorUtil");
+        args.add("service.props.util=com.liferay.util.service.ServiceProps");
+        args.add("service.plugin.name=" + getPluginName());
+
+        return args;
     }
 
     /**
@@ -291,8 +651,6 @@ public class BuildService extends DefaultTask {
      * @return the file that points to the folder where the generated service implementation source files will be
      *         written to
      */
-    @InputDirectory
-    @OutputDirectory
     public File getImplSrcDir() {
         return implSrcDir;
     }
@@ -313,7 +671,6 @@ public class BuildService extends DefaultTask {
      *
      * @return the file that points to the folder where the generated service api source files will be written to
      */
-    @OutputDirectory
     public File getApiSrcDir() {
         return apiSrcDir;
     }
@@ -335,8 +692,6 @@ public class BuildService extends DefaultTask {
      *
      * @return the file that points to the folder where the generated resource files will be written to
      */
-    @InputDirectory
-    @OutputDirectory
     public File getResourceDir() {
         return resourceDir;
     }
@@ -356,7 +711,6 @@ public class BuildService extends DefaultTask {
      *
      * @return the web application folder where generated sql files etc will be written to
      */
-    @OutputDirectory
     public File getWebappSrcDir() {
         return webappSrcDir;
     }
@@ -370,6 +724,94 @@ public class BuildService extends DefaultTask {
         this.webappSrcDir = webappSrcDir;
     }
 
+    /**
+     * Returns the file that points to the folder where the generated service implementation source files are
+     * written to when they are kept apart from the hand written implementation classes.
+     *
+     * @return the file that points to the folder where the generated service implementation source files are
+     *         written to or null if they are written to the implementation source folder
+     */
+    public File getGeneratedImplSrcDir() {
+        return generatedImplSrcDir;
+    }
+
+    /**
+     * Sets the file that points to the folder where the generated service implementation source files are
+     * written to. When this property and the generated resource folder are set, only the implementation classes
+     * that are meant to be edited by hand are written to the implementation source folder, and only if they do not
+     * exist yet.
+     *
+     * @param generatedImplSrcDir file that points to the folder where the generated service implementation source
+     *                            files are written to
+     */
+    public void setGeneratedImplSrcDir(File generatedImplSrcDir) {
+        this.generatedImplSrcDir = generatedImplSrcDir;
+    }
+
+    /**
+     * Returns the file that points to the folder where the generated resource files
+     * (hibernate mappings / application contexts etc) are written to when they are kept apart from the hand
+     * written resources.
+     *
+     * @return the file that points to the folder where the generated resource files are written to or null if
+     *         they are written to the resource folder
+     */
+    public File getGeneratedResourceDir() {
+        return generatedResourceDir;
+    }
+
+    /**
+     * Sets the file that points to the folder where the generated resource files
+     * (hibernate mappings / application contexts etc) are written to. When this property and the generated
+     * implementation source folder are set, only the model hints are written to the resource folder.
+     *
+     * @param generatedResourceDir file that points to the folder where the generated resource files are
+     *                             written to
+     */
+    public void setGeneratedResourceDir(File generatedResourceDir) {
+        this.generatedResourceDir = generatedResourceDir;
+    }
+
+    /**
+     * Returns true if ServiceBuilder runs in a long lived worker process that is reused across builds,
+     * false if a new java process is forked for every run.
+     *
+     * @return true if ServiceBuilder runs in a long lived worker process, false otherwise
+     */
+    public Boolean getUseWorker() {
+        return useWorker;
+    }
+
+    /**
+     * Set to true to run ServiceBuilder in a long lived worker process that is reused across builds. When the
+     * worker cannot be started or dies while running, a new java process is forked instead.
+     *
+     * @param useWorker true to run ServiceBuilder in a long lived worker process, false otherwise
+     */
+    public void setUseWorker(Boolean useWorker) {
+        this.useWorker = useWorker;
+    }
+
+    /**
+     * Returns the maximum number of ServiceBuilder runs that may execute at the same time across all projects
+     * in the build.
+     *
+     * @return the maximum number of ServiceBuilder runs that may execute at the same time
+     */
+    public Integer getMaxParallelRuns() {
+        return maxParallelRuns;
+    }
+
+    /**
+     * Sets the maximum number of ServiceBuilder runs that may execute at the same time across all projects
+     * in the build. If unset this value defaults to half the number of available processors.
+     *
+     * @param maxParallelRuns the maximum number of ServiceBuilder runs that may execute at the same time
+     */
+    public void setMaxParallelRuns(Integer maxParallelRuns) {
+        this.maxParallelRuns = maxParallelRuns;
+    }
+
     /**
      * Returns the file collection that contains the classes required to run liferay's ServiceBuilder.
      *
@@ -389,4 +831,99 @@ public class BuildService extends DefaultTask {
     public void setClasspath(FileCollection classpath) {
         this.classpath = classpath;
     }
+
+    private static final class StagedDir implements DirectorySync.TargetDirSelector {
+
+        private final File dir;
+        private final File generatedDir;
+        private final File stagingDir;
+        private final GeneratedFileSpec generatedFileSpec;
+
+        private Set<String> stagedFiles;
+
+        private StagedDir(File dir, File stagingDir) {
+            this(dir, null, stagingDir, null);
+        }
+
+        private StagedDir(File dir, File generatedDir, File stagingDir, GeneratedFileSpec generatedFileSpec) {
+            this.dir = dir;
+            this.generatedDir = generatedDir;
+            this.stagingDir = stagingDir;
+            this.generatedFileSpec = generatedFileSpec;
+        }
+
+        private List<File> getDirs() {
+            if (generatedDir == null) {
+                return Collections.singletonList(dir);
+            }
+            List<File> dirs = new ArrayList<File>();
+            dirs.add(dir);
+            dirs.add(generatedDir);
+            return dirs;
+        }
+
+        @Override
+        public File getTargetDir(String path) {
+            if (generatedDir != null && generatedFileSpec.isGenerated(path)) {
+                return generatedDir;
+            }
+            return dir;
+        }
+
+        private List<String> getMisplacedFiles() {
+            List<String> misplacedFiles = new ArrayList<String>();
+            if (generatedDir != null) {
+                for (String path : stagedFiles) {
+                    if (generatedFileSpec.isGenerated(path) && new File(dir, path).isFile()) {
+                        misplacedFiles.add(path);
+                    }
+                }
+            }
+            return misplacedFiles;
+        }
+    }
+
+    private interface GeneratedFileSpec {
+        boolean isGenerated(String path);
+    }
+
+    private static final class GeneratedImplFileSpec implements GeneratedFileSpec {
+        @Override
+        public boolean isGenerated(String path) {
+            String fileName = path.substring(path.lastIndexOf('/') + 1);
+
+            if (path.contains("/model/impl/")) {
+                return fileName.endsWith("BaseImpl.java") || fileName.endsWith("ModelImpl.java")
+                        || fileName.endsWith("CacheModel.java");
+            }
+            if (path.contains("/service/persistence/")) {
+                return fileName.endsWith("PersistenceImpl.java") || fileName.endsWith("FinderBaseImpl.java");
+            }
+            return path.contains("/service/base/") || path.contains("/service/http/")
+                    || "service.properties".equals(path);
+        }
+    }
+
+    private static final class GeneratedResourceFileSpec implements GeneratedFileSpec {
+
+        // the model hints are merged with the existing file on every run and are meant to be edited by hand,
+        // so they are not in this list
+
+        private static final List<String> GENERATED_RESOURCES = Arrays.asList(
+                "META-INF/portlet-hbm.xml",
+                "META-INF/portlet-orm.xml",
+                "META-INF/portlet-spring.xml",
+                "META-INF/base-spring.xml",
+                "META-INF/cluster-spring.xml",
+                "META-INF/dynamic-data-source-spring.xml",
+                "META-INF/hibernate-spring.xml",
+                "META-INF/infrastructure-spring.xml",
+                "META-INF/shard-data-source-spring.xml"
+        );
+
+        @Override
+        public boolean isGenerated(String path) {
+            return GENERATED_RESOURCES.contains(path);
+        }
+    }
 }
@@ -25,13 +25,18 @@ import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskExecutionException;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Implementation of {@link org.gradle.api.Task} that creates a thumbnail image from a (larger) original image.
+ * The thumbnail is created by Liferay's ThumbnailBuilder on the portal classpath, or inside the Gradle process with
+ * the image support of the JDK when inProcess is set.
  *
  * @author Jelmer Kuperus
  */
@@ -59,6 +64,8 @@ public class BuildThumbnail extends DefaultTask {
 
     private boolean overwrite = true;
 
+    private Boolean inProcess;
+
     /**
      * Performs the build thumbnail task.
      */
@@ -73,6 +80,31 @@ public class BuildThumbnail extends DefaultTask {
             throw new InvalidUserDataException("Please specify a valid height");
         }
 
+        if (Boolean.TRUE.equals(getInProcess())) {
+            buildThumbnailInProcess();
+        } else {
+            buildThumbnailWithThumbnailBuilder();
+        }
+    }
+
+    private void buildThumbnailInProcess() {
+        if (!getOverwrite() && getThumbnailFile().exists()) {
+            return;
+        }
+
+        try {
+            ThumbnailScaler.createThumbnail(getOriginalFile(), getThumbnailFile(), getWidth(), getHeight());
+        } catch (IOException e) {
+            throw new TaskExecutionException(this, e);
+        }
+    }
+
+    private void buildThumbnailWithThumbnailBuilder() {
+        if (getClasspath() == null) {
+            throw new InvalidUserDataException("Please specify the classpath of the ThumbnailBuilder or set " +
+                    "inProcess to true");
+        }
+
         Java javaTask = new Java();
         javaTask.setClassname("com.liferay.portal.tools.ThumbnailBuilder");
 
@@ -124,6 +156,7 @@ public class BuildThumbnail extends DefaultTask {
      * @return the file collection that contains the classes required to run buildThumbnail
      */
     @InputFiles
+    @Optional
     public FileCollection getClasspath() {
         return classpath;
     }
@@ -235,4 +268,26 @@ public class BuildThumbnail extends DefaultTask {
     public void setOverwrite(boolean overwrite) {
         this.overwrite = overwrite;
     }
+
+    /**
+     * Returns true if the thumbnail is created inside the Gradle process with the image support of the JDK, false
+     * if Liferay's ThumbnailBuilder is run on the classpath.
+     *
+     * @return true if the thumbnail is created inside the Gradle process, false otherwise
+     */
+    @Input
+    @Optional
+    public Boolean getInProcess() {
+        return inProcess;
+    }
+
+    /**
+     * Set to true to create the thumbnail inside the Gradle process with the image support of the JDK. The
+     * classpath is not needed then.
+     *
+     * @param inProcess true to create the thumbnail inside the Gradle process, false otherwise
+     */
+    public void setInProcess(Boolean inProcess) {
+        this.inProcess = inProcess;
+    }
 }
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.file.ConfigurableFileTree;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Implementation of {@link org.gradle.api.Task} that creates a thumbnail for every screenshot in a folder, such as
+ * the screenshots of the color schemes of a theme. A thumbnail is created next to the relative path of its
+ * screenshot in the output folder, which should be a build folder as thumbnails that are no longer needed are
+ * deleted from it.
+ * <p/>
+ * Thumbnails are created inside the Gradle process on a number of threads. Only the thumbnails of screenshots that
+ * were added or changed since the previous run are created again. Screenshots that already have a thumbnail next to
+ * them are skipped.
+ *
+ * @author Jelmer Kuperus
+ */
+public class BuildThumbnails extends DefaultTask {
+
+    private static final String SCREENSHOT_FILE_NAME = "screenshot.png";
+    private static final String THUMBNAIL_FILE_NAME = "thumbnail.png";
+
+    private static final String SCREENSHOT_PATTERN = "**/" + SCREENSHOT_FILE_NAME;
+
+    private File sourceDir;
+
+    private File outputDir;
+
+    private List<String> excludes = new ArrayList<String>();
+
+    private int height = BuildThumbnail.DEFAULT_HEIGHT;
+
+    private int width = BuildThumbnail.DEFAULT_WIDTH;
+
+    private Integer parallelism;
+
+    /**
+     * Performs the build thumbnails task.
+     */
+    @TaskAction
+    public void buildThumbnails() {
+        if (getWidth() <= 0) {
+            throw new InvalidUserDataException("Please specify a valid width");
+        }
+
+        if (getHeight() <= 0) {
+            throw new InvalidUserDataException("Please specify a valid height");
+        }
+
+        // thumbnails of another size are never up to date
+
+        File manifestFile = new File(getTemporaryDir(), "manifest-" + getWidth() + "x" + getHeight() + ".properties");
+        FileManifest manifest = FileManifest.load(manifestFile);
+
+        Map<String, File> screenshots = findScreenshots();
+
+        for (String path : manifest.getPaths()) {
+            if (!screenshots.containsKey(path)) {
+                getThumbnailFile(path).delete();
+                manifest.remove(path);
+            }
+        }
+
+        Iterator<Map.Entry<String, File>> iterator = screenshots.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, File> screenshot = iterator.next();
+            if (manifest.isUpToDate(screenshot.getKey(), screenshot.getValue())
+                    && getThumbnailFile(screenshot.getKey()).isFile()) {
+                iterator.remove();
+            }
+        }
+
+        try {
+            buildThumbnails(screenshots, manifest);
+        } finally {
+            try {
+                manifest.store(manifestFile);
+            } catch (IOException e) {
+                getLogger().warn("Unable to store the thumbnail manifest", e);
+            }
+        }
+    }
+
+    private void buildThumbnails(Map<String, File> screenshots, FileManifest manifest) {
+        if (screenshots.isEmpty()) {
+            return;
+        }
+
+        int parallelism = getParallelism() == null ? 1 : Math.max(1, getParallelism());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, screenshots.size()));
+        try {
+            Map<String, Future<?>> futures = new LinkedHashMap<String, Future<?>>();
+            for (final Map.Entry<String, File> screenshot : screenshots.entrySet()) {
+                futures.put(screenshot.getKey(), executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        ThumbnailScaler.createThumbnail(screenshot.getValue(),
+                                getThumbnailFile(screenshot.getKey()), getWidth(), getHeight());
+                        return null;
+                    }
+                }));
+            }
+
+            for (Map.Entry<String, Future<?>> future : futures.entrySet()) {
+                future.getValue().get();
+                manifest.put(future.getKey(), screenshots.get(future.getKey()));
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new TaskExecutionException(this, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while building thumbnails", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        getLogger().info("Built {} thumbnails", screenshots.size());
+    }
+
+    private Map<String, File> findScreenshots() {
+        Map<String, File> screenshots = new TreeMap<String, File>();
+        if (!getSourceDir().isDirectory()) {
+            return screenshots;
+        }
+
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(getSourceDir());
+        scanner.setIncludes(new String[] {SCREENSHOT_PATTERN});
+        scanner.setExcludes(getExcludes().toArray(new String[getExcludes().size()]));
+        scanner.scan();
+
+        for (String path : scanner.getIncludedFiles()) {
+            File screenshot = new File(getSourceDir(), path);
+
+            // a thumbnail that comes with the screenshot wins
+
+            if (!new File(screenshot.getParentFile(), THUMBNAIL_FILE_NAME).exists()) {
+                screenshots.put(path.replace(File.separatorChar, '/'), screenshot);
+            }
+        }
+        return screenshots;
+    }
+
+    private File getThumbnailFile(String screenshotPath) {
+        String dirPath = screenshotPath.substring(0, screenshotPath.length() - SCREENSHOT_FILE_NAME.length());
+        return new File(getOutputDir(), dirPath + THUMBNAIL_FILE_NAME);
+    }
+
+    /**
+     * Returns the screenshots in the source folder.
+     *
+     * @return the screenshots in the source folder
+     */
+    @InputFiles
+    public FileCollection getScreenshotFiles() {
+        ConfigurableFileTree tree = getProject().fileTree(getSourceDir());
+        tree.include(SCREENSHOT_PATTERN);
+        tree.exclude(getExcludes());
+        return tree;
+    }
+
+    /**
+     * Returns the thumbnails that are created.
+     *
+     * @return the thumbnails that are created
+     */
+    @OutputFiles
+    public FileCollection getThumbnailFiles() {
+        List<File> thumbnailFiles = new ArrayList<File>();
+        for (String path : findScreenshots().keySet()) {
+            thumbnailFiles.add(getThumbnailFile(path));
+        }
+        return getProject().files(thumbnailFiles);
+    }
+
+    /**
+     * Returns the folder that holds the screenshots.
+     *
+     * @return the folder that holds the screenshots
+     */
+    public File getSourceDir() {
+        return sourceDir;
+    }
+
+    /**
+     * Sets the folder that holds the screenshots. Every file named screenshot.png in this folder or its sub folders
+     * is a screenshot.
+     *
+     * @param sourceDir the folder that holds the screenshots
+     */
+    public void setSourceDir(File sourceDir) {
+        this.sourceDir = sourceDir;
+    }
+
+    /**
+     * Returns the folder the thumbnails are written to.
+     *
+     * @return the folder the thumbnails are written to
+     */
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * Sets the folder the thumbnails are written to.
+     *
+     * @param outputDir the folder the thumbnails are written to
+     */
+    public void setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Returns the Ant patterns of the screenshots that are skipped.
+     *
+     * @return the Ant patterns of the screenshots that are skipped
+     */
+    @Input
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * Sets the Ant patterns of the screenshots that are skipped, for instance because another task creates their
+     * thumbnails.
+     *
+     * @param excludes the Ant patterns of the screenshots that are skipped
+     */
+    public void setExcludes(List<String> excludes) {
+        this.excludes = excludes;
+    }
+
+    /**
+     * Returns the maximum height of the thumbnails.
+     *
+     * @return the maximum height of the thumbnails
+     */
+    @Input
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sets the maximum height of the thumbnails.
+     * If unset this value defaults to 120
+     *
+     * @param height the maximum height of the thumbnails
+     */
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    /**
+     * Returns the maximum width of the thumbnails.
+     *
+     * @return the maximum width of the thumbnails
+     */
+    @Input
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Sets the maximum width of the thumbnails.
+     * If unset this value defaults to 160
+     *
+     * @param width the maximum width of the thumbnails
+     */
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     * Returns the maximum number of thumbnails that are created at the same time.
+     *
+     * @return the maximum number of thumbnails that are created at the same time
+     */
+    @Input
+    @Optional
+    public Integer getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of thumbnails that are created at the same time.
+     *
+     * @param parallelism the maximum number of thumbnails that are created at the same time
+     */
+    public void setParallelism(Integer parallelism) {
+        this.parallelism = parallelism;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.GradleException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helper methods for calculating checksums of files and strings.
+ *
+ * @author Jelmer Kuperus
+ */
+final class Checksums {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private Checksums() {
+    }
+
+    /**
+     * Returns a new message digest.
+     *
+     * @return a new message digest
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new GradleException("MD5 is not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Adds the contents of a file to a message digest.
+     *
+     * @param digest the digest to update
+     * @param file   the file whose contents are added to the digest
+     * @throws IOException when the file cannot be read
+     */
+    static void update(MessageDigest digest, File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Adds a string to a message digest.
+     *
+     * @param digest the digest to update
+     * @param value  the string to add to the digest
+     */
+    static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(value.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new GradleException("UTF-8 is not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Returns the checksum of the contents of a file as a hexadecimal string.
+     *
+     * @param file the file to checksum
+     * @return the checksum of the file
+     * @throws IOException when the file cannot be read
+     */
+    static String checksum(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, file);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the checksum of a string as a hexadecimal string.
+     *
+     * @param value the string to checksum
+     * @return the checksum of the string
+     */
+    static String checksum(String value) {
+        MessageDigest digest = newDigest();
+        update(digest, value);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the hexadecimal representation of a digest.
+     *
+     * @param bytes the digest
+     * @return the hexadecimal representation of the digest
+     */
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.GradleException;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps isolated class loaders for Liferay tools alive in the Gradle daemon, so the tools do not have to be loaded
+ * from scratch for every run.
+ * <p/>
+ * Class loaders are shared by all users that ask for the same classpath and settings. When the classpath or the
+ * settings of a user change, the class loader it used before is closed as soon as no other user needs it. Class
+ * loaders that have not been used for a while are closed when the cache is full.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ClassLoaderCache {
+
+    private static final int MAX_CLASS_LOADERS = 4;
+
+    private static final LinkedHashMap<String, CachedClassLoader> CLASS_LOADERS =
+            new LinkedHashMap<String, CachedClassLoader>(16, 0.75f, true);
+
+    private static final Map<String, String> KEYS_BY_USER = new HashMap<String, String>();
+
+    private static final Map<ClassLoader, CachedClassLoader> LEASED =
+            new IdentityHashMap<ClassLoader, CachedClassLoader>();
+
+    private static long hits;
+    private static long misses;
+    private static long closed;
+
+    private ClassLoaderCache() {
+    }
+
+    /**
+     * Returns a class loader for a classpath. The class loader does not see the classes of Gradle or of this
+     * plugin. The class loader stays open until it is handed back with {@link #release(ClassLoader)}, even when it
+     * is evicted or discarded in the meantime.
+     *
+     * @param user      identifies the user of the class loader, usually the path of a task
+     * @param classpath the classpath of the class loader
+     * @param settings  values that affect the state of the classes once loaded, when they change a new class
+     *                  loader is created
+     * @return the class loader
+     */
+    static synchronized ClassLoader acquire(String user, Collection<File> classpath, Object... settings) {
+        String key = createKey(classpath, settings);
+
+        String previousKey = KEYS_BY_USER.put(user, key);
+        if (previousKey != null && !previousKey.equals(key)) {
+            unregister(user, previousKey);
+        }
+
+        CachedClassLoader cachedClassLoader = CLASS_LOADERS.get(key);
+        if (cachedClassLoader == null) {
+            misses++;
+            cachedClassLoader = new CachedClassLoader(createClassLoader(classpath));
+            CLASS_LOADERS.put(key, cachedClassLoader);
+            evict();
+        } else {
+            hits++;
+        }
+        cachedClassLoader.users.add(user);
+        cachedClassLoader.leases++;
+        LEASED.put(cachedClassLoader.classLoader, cachedClassLoader);
+
+        return cachedClassLoader.classLoader;
+    }
+
+    /**
+     * Hands back a class loader returned by {@link #acquire(String, Collection, Object...)}. A class loader that was
+     * evicted or discarded while it was in use is closed once the last user has handed it back.
+     *
+     * @param classLoader the class loader
+     */
+    static synchronized void release(ClassLoader classLoader) {
+        CachedClassLoader cachedClassLoader = LEASED.get(classLoader);
+        if (cachedClassLoader == null) {
+            return;
+        }
+
+        cachedClassLoader.leases--;
+        if (cachedClassLoader.leases == 0) {
+            LEASED.remove(classLoader);
+            if (cachedClassLoader.retired) {
+                close(cachedClassLoader);
+            }
+        }
+    }
+
+    /**
+     * Removes the class loader of a user from the cache, for instance because running the tools in it failed and
+     * it may be left in a broken state. The class loader is closed once no user is running tools in it.
+     *
+     * @param user identifies the user of the class loader
+     */
+    static synchronized void discard(String user) {
+        String key = KEYS_BY_USER.remove(user);
+        if (key != null) {
+            CachedClassLoader cachedClassLoader = CLASS_LOADERS.remove(key);
+            if (cachedClassLoader != null) {
+                retire(cachedClassLoader);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of hits, misses and class loaders of the cache since the Gradle daemon started.
+     *
+     * @return the statistics of the cache
+     */
+    static synchronized Statistics getStatistics() {
+        return new Statistics(hits, misses, CLASS_LOADERS.size(), closed);
+    }
+
+    private static void unregister(String user, String key) {
+        CachedClassLoader cachedClassLoader = CLASS_LOADERS.get(key);
+        if (cachedClassLoader == null) {
+            return;
+        }
+
+        cachedClassLoader.users.remove(user);
+        if (cachedClassLoader.users.isEmpty()) {
+            CLASS_LOADERS.remove(key);
+            retire(cachedClassLoader);
+        }
+    }
+
+    private static void evict() {
+        Iterator<Map.Entry<String, CachedClassLoader>> iterator = CLASS_LOADERS.entrySet().iterator();
+        while (CLASS_LOADERS.size() > MAX_CLASS_LOADERS && iterator.hasNext()) {
+            Map.Entry<String, CachedClassLoader> eldest = iterator.next();
+            iterator.remove();
+            KEYS_BY_USER.values().removeAll(Collections.singleton(eldest.getKey()));
+            retire(eldest.getValue());
+        }
+    }
+
+    private static void retire(CachedClassLoader cachedClassLoader) {
+
+        // another task may still be running tools in the class loader, the last one to release it closes it
+
+        cachedClassLoader.retired = true;
+        if (cachedClassLoader.leases == 0) {
+            close(cachedClassLoader);
+        }
+    }
+
+    private static void close(CachedClassLoader cachedClassLoader) {
+        closed++;
+        try {
+            cachedClassLoader.classLoader.close();
+        } catch (IOException e) {
+
+            // the jars stay open until the class loader is garbage collected, nothing else we can do
+
+        }
+    }
+
+    private static String createKey(Collection<File> classpath, Object... settings) {
+
+        // jars replaced in place must result in a new class loader, so the size and timestamp are part of the key
+
+        MessageDigest digest = Checksums.newDigest();
+        for (File file : classpath) {
+            Checksums.update(digest, file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified() + ';');
+        }
+        for (Object setting : settings) {
+            Checksums.update(digest, String.valueOf(setting) + ';');
+        }
+        return Checksums.toHex(digest.digest());
+    }
+
+    private static URLClassLoader createClassLoader(Collection<File> classpath) {
+        List<URL> urls = new ArrayList<URL>();
+        for (File file : classpath) {
+            try {
+                urls.add(file.toURI().toURL());
+            } catch (MalformedURLException e) {
+                throw new GradleException("Unable to add " + file + " to the classpath", e);
+            }
+        }
+
+        // the parent is the extension class loader so the tools get the jdk classes but not gradle's classes
+
+        return new URLClassLoader(urls.toArray(new URL[urls.size()]), ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    private static final class CachedClassLoader {
+
+        private final URLClassLoader classLoader;
+        private final Set<String> users = new HashSet<String>();
+        private int leases;
+        private boolean retired;
+
+        private CachedClassLoader(URLClassLoader classLoader) {
+            this.classLoader = classLoader;
+        }
+    }
+
+    /**
+     * The number of hits, misses and class loaders of the cache at some point in time.
+     */
+    static final class Statistics {
+        private final long hits;
+        private final long misses;
+        private final int open;
+        private final long closed;
+
+        private Statistics(long hits, long misses, int open, long closed) {
+            this.hits = hits;
+            this.misses = misses;
+            this.open = open;
+            this.closed = closed;
+        }
+
+        long getHits() {
+            return hits;
+        }
+
+        long getMisses() {
+            return misses;
+        }
+
+        int getOpen() {
+            return open;
+        }
+
+        long getClosed() {
+            return closed;
+        }
+    }
+}
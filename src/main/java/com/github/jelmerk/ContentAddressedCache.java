@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A folder that holds files by key, shared by any number of builds and projects.
+ * <p/>
+ * Files are written to a temporary file first and then moved in place, so readers never see a partially written
+ * file and concurrent writers of the same key do not get in each others way. The timestamp of a file is updated
+ * every time it is read, so {@link #trim()} can delete the files that were not used for the longest time.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ContentAddressedCache {
+
+    private static final String TEMP_FILE_PREFIX = ".tmp-";
+
+    private final File dir;
+    private final long maxSize;
+
+    /**
+     * Constructs a new ContentAddressedCache.
+     *
+     * @param dir     the folder that holds the files
+     * @param maxSize the maximum size of the folder in bytes
+     */
+    ContentAddressedCache(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Copies the file stored under a key.
+     *
+     * @param key    the key
+     * @param target the file to copy the stored file to
+     * @return true if a file was stored under the key, false otherwise
+     */
+    boolean get(String key, File target) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return false;
+        }
+
+        try {
+            DirectorySync.copy(file, target);
+        } catch (IOException e) {
+
+            // evicted by another build while we were copying it
+
+            target.delete();
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        target.setLastModified(now);
+        file.setLastModified(now);
+        return true;
+    }
+
+    /**
+     * Stores a file under a key.
+     *
+     * @param key    the key
+     * @param source the file to store
+     * @throws IOException when the file cannot be stored
+     */
+    void put(String key, File source) throws IOException {
+        File file = getFile(key);
+        if (file.isFile()) {
+            return;
+        }
+
+        File shardDir = file.getParentFile();
+        shardDir.mkdirs();
+
+        File tempFile = File.createTempFile(TEMP_FILE_PREFIX, null, shardDir);
+        try {
+            DirectorySync.copy(source, tempFile);
+            tempFile.setLastModified(System.currentTimeMillis());
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath());
+            }
+        } catch (FileAlreadyExistsException e) {
+
+            // another build stored the same content first
+
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Deletes the files that were not used for the longest time until the folder is no larger than its maximum
+     * size.
+     */
+    void trim() {
+        List<File> files = new ArrayList<File>();
+        final Map<File, Long> lastModified = new HashMap<File, Long>();
+        long size = 0;
+
+        File[] shardDirs = dir.listFiles();
+        if (shardDirs == null) {
+            return;
+        }
+
+        for (File shardDir : shardDirs) {
+            File[] shardFiles = shardDir.listFiles();
+            if (shardFiles == null) {
+                continue;
+            }
+            for (File file : shardFiles) {
+                if (!file.getName().startsWith(TEMP_FILE_PREFIX)) {
+                    files.add(file);
+                    lastModified.put(file, file.lastModified());
+                    size += file.length();
+                }
+            }
+        }
+
+        if (size <= maxSize) {
+            return;
+        }
+
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file, File otherFile) {
+                return lastModified.get(file).compareTo(lastModified.get(otherFile));
+            }
+        });
+
+        for (File file : files) {
+            if (size <= maxSize) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(dir, key.substring(0, 2) + '/' + key);
+    }
+}
@@ -16,34 +16,178 @@
 
 package com.github.jelmerk;
 
-import org.apache.tools.ant.taskdefs.Copy;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.Project;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskExecutionException;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
 
 /**
  * Implementation of {@link org.gradle.api.Task} that deploys a liferay plugin.
+ * <p/>
+ * The plugin is written under a temporary name, flushed to disk and then renamed, so Liferay never picks up a
+ * partially written file. The checksum of the last plugin deployed to every autodeploy dir is remembered for the
+ * project, and a plugin that did not change since is not deployed again unless force is set.
  *
  * @author Jelmer Kuperus
  */
 public class Deploy extends DefaultTask {
 
+    private static final String PART_FILE_SUFFIX = ".part";
+
     private File autoDeployDir;
     private File warFile;
 
+    private boolean force;
+
     /**
      * Performs the deploy task.
      */
     @TaskAction
     public void deploy() {
-        Copy copy = new Copy();
+        File targetFile = new File(getAutoDeployDir(), getWarFile().getName());
+        File stateFile = getStateFile(getProject());
+
+        try {
+            if (!getForce() && isDeployed(getWarFile(), targetFile, stateFile)) {
+                getLogger().lifecycle("{} did not change since it was last deployed to {}, use force to deploy it " +
+                        "anyway", getWarFile().getName(), getAutoDeployDir());
+                return;
+            }
 
-        copy.setFile(getWarFile());
-        copy.setTodir(getAutoDeployDir());
-        copy.execute();
+            copyAndRecord(getWarFile(), targetFile, stateFile);
+        } catch (IOException e) {
+            throw new TaskExecutionException(this, e);
+        }
+    }
+
+    /**
+     * Returns the file that holds the checksums of the plugins last deployed by the tasks of a project.
+     *
+     * @param project the project
+     * @return the file that holds the checksums of the deployed plugins
+     */
+    static File getStateFile(Project project) {
+        return new File(project.getBuildDir(), "deploy/deployed.properties");
+    }
+
+    /**
+     * Returns true if a plugin with the same content was the last plugin deployed to a file.
+     *
+     * @param warFile    the plugin
+     * @param targetFile the file the plugin is deployed to
+     * @param stateFile  the file that holds the checksums of the deployed plugins
+     * @return true if the plugin was the last one deployed to the target file, false otherwise
+     * @throws IOException when the plugin cannot be read
+     */
+    static boolean isDeployed(File warFile, File targetFile, File stateFile) throws IOException {
+        return Checksums.checksum(warFile).equals(loadDeployed(stateFile).getProperty(targetFile.getAbsolutePath()));
+    }
+
+    /**
+     * Copies a plugin with {@link #copyAtomically(File, File)} and records its checksum, so every task that deploys
+     * to the same file knows which plugin was deployed last.
+     *
+     * @param warFile    the plugin to copy
+     * @param targetFile the file to copy the plugin to
+     * @param stateFile  the file that holds the checksums of the deployed plugins
+     * @throws IOException when copying fails
+     */
+    static void copyAndRecord(File warFile, File targetFile, File stateFile) throws IOException {
+        String checksum = Checksums.checksum(warFile);
+
+        copyAtomically(warFile, targetFile);
+
+        Properties deployed = loadDeployed(stateFile);
+        deployed.setProperty(targetFile.getAbsolutePath(), checksum);
+        storeDeployed(stateFile, deployed);
+    }
+
+    /**
+     * Copies a plugin to a folder Liferay scans for plugins. The plugin is written under a temporary name, flushed
+     * to disk and then renamed.
+     *
+     * @param warFile    the plugin to copy
+     * @param targetFile the file to copy the plugin to
+     * @throws IOException when copying fails
+     */
+    static void copyAtomically(File warFile, File targetFile) throws IOException {
+        targetFile.getParentFile().mkdirs();
+
+        // liferay only picks up files with the extension of a plugin, so it ignores the file while it is written
+
+        File partFile = new File(targetFile.getParentFile(), targetFile.getName() + PART_FILE_SUFFIX);
+        try {
+            InputStream in = new FileInputStream(warFile);
+            try {
+                FileOutputStream out = new FileOutputStream(partFile);
+                try {
+                    byte[] buffer = new byte[65536];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                    out.flush();
+                    out.getFD().sync();
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            try {
+                Files.move(partFile.toPath(), targetFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            partFile.delete();
+        }
+    }
+
+    private static Properties loadDeployed(File stateFile) {
+        Properties deployed = new Properties();
+        if (stateFile.isFile()) {
+            try {
+                InputStream in = new FileInputStream(stateFile);
+                try {
+                    deployed.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+
+                // the plugin is deployed again
+
+                deployed.clear();
+            }
+        }
+        return deployed;
+    }
+
+    private static void storeDeployed(File stateFile, Properties deployed) throws IOException {
+        stateFile.getParentFile().mkdirs();
+
+        OutputStream out = new FileOutputStream(stateFile);
+        try {
+            deployed.store(out, "deployed plugins");
+        } finally {
+            out.close();
+        }
     }
 
     /**
@@ -85,4 +229,23 @@ public class Deploy extends DefaultTask {
     public void setWarFile(File warFile) {
         this.warFile = warFile;
     }
+
+    /**
+     * Returns true if the plugin is deployed even when it did not change since it was last deployed.
+     *
+     * @return true if the plugin is always deployed, false otherwise
+     */
+    public boolean getForce() {
+        return force;
+    }
+
+    /**
+     * Set to true to deploy the plugin even when it did not change since it was last deployed, for instance because
+     * it was undeployed in the meantime. If unset this value defaults to false
+     *
+     * @param force true if the plugin is always deployed, false otherwise
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
 }
@@ -16,21 +16,18 @@
 
 package com.github.jelmerk;
 
+import org.apache.tools.ant.taskdefs.Java;
+import org.apache.tools.ant.types.Environment;
+import org.apache.tools.ant.types.Path;
 import org.gradle.api.DefaultTask;
-import org.gradle.api.Project;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.TaskAction;
 
 import java.io.File;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.security.Permission;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,54 +44,56 @@ public class DirectDeploy extends DefaultTask {
     private File destDir;
     private Boolean customPortletXML;
     private File warFile;
+    private Boolean inProcess;
 
-    private void deploy(String className, ClassLoader classLoader, String[] args) throws ReflectiveOperationException {
-        Thread currentThread = Thread.currentThread();
-        ClassLoader contextClassLoader = currentThread.getContextClassLoader();
-        currentThread.setContextClassLoader(classLoader);
-        SecurityManager currentSecurityManager = System.getSecurityManager();
+    private void deployInForkedProcess(String className, String[] args, Map<String, String> properties) {
+        Java javaTask = new Java();
 
-        SecurityManager securityManager = new SecurityManager() {
-            public void checkPermission(Permission permission) {
-            }
-            public void checkExit(int status) {
-                throw new SecurityException();
-            }
-        };
+        javaTask.setTaskName("direct deploy");
+        javaTask.setClassname(className);
 
-        System.setSecurityManager(securityManager);
+        org.apache.tools.ant.Project antProject = getAnt().getAntProject();
 
-        try {
-            System.setProperty("external-properties", "com/liferay/portal/tools/dependencies/portal-tools.properties");
-            System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.Log4JLogger");
-            Class<?> clazz = classLoader.loadClass(className);
-            Method method = clazz.getMethod("main", String[].class);
-            method.invoke(null, (Object)args);
+        Path antClasspath = new Path(antProject);
+
+        for (File dep : classPath) {
+            antClasspath.createPathElement()
+                    .setLocation(dep);
         }
-        catch (InvocationTargetException e) {
-            if (e.getCause() instanceof SecurityException) {
-            }
-            else {
-                throw e;
-            }
+
+        javaTask.setProject(antProject);
+        javaTask.setClasspath(antClasspath);
+
+        javaTask.setFork(true);
+        javaTask.setNewenvironment(true);
+        javaTask.setFailonerror(true);
+
+        for (String arg : args) {
+            javaTask.createArg()
+                    .setValue(arg);
         }
-        finally {
-            currentThread.setContextClassLoader(contextClassLoader);
-            System.setSecurityManager(currentSecurityManager);
+
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            Environment.Variable sysProperty = new Environment.Variable();
+            sysProperty.setKey(property.getKey());
+            sysProperty.setValue(property.getValue());
+            javaTask.addSysproperty(sysProperty);
         }
-      }
 
-    private void deployPortlet() {
+        javaTask.execute();
+    }
+
+    private void deployPortlet(Map<String, String> properties, String classLoaderUser) {
         String tldPath = (new File(appServerDir, "webapps/ROOT/WEB-INF/tld")).getAbsolutePath();
 
-        System.setProperty("deployer.aui.taglib.dtd", tldPath + "/aui.tld");
-        System.setProperty("deployer.custom.portlet.xml", String.valueOf(customPortletXML));
-        System.setProperty("deployer.portlet.taglib.dtd", tldPath + "/liferay-portlet.tld");
-        System.setProperty("deployer.portlet-ext.taglib.dtd", tldPath + "/liferay-portlet-ext.tld");
-        System.setProperty("deployer.security.taglib.dtd", tldPath + "/liferay-security.tld");
-        System.setProperty("deployer.theme.taglib.dtd", tldPath + "/liferay-theme.tld");
-        System.setProperty("deployer.ui.taglib.dtd", tldPath + "/liferay-ui.tld");
-        System.setProperty("deployer.util.taglib.dtd", tldPath + "/liferay-util.tld");
+        properties.put("deployer.aui.taglib.dtd", tldPath + "/aui.tld");
+        properties.put("deployer.custom.portlet.xml", String.valueOf(customPortletXML));
+        properties.put("deployer.portlet.taglib.dtd", tldPath + "/liferay-portlet.tld");
+        properties.put("deployer.portlet-ext.taglib.dtd", tldPath + "/liferay-portlet-ext.tld");
+        properties.put("deployer.security.taglib.dtd", tldPath + "/liferay-security.tld");
+        properties.put("deployer.theme.taglib.dtd", tldPath + "/liferay-theme.tld");
+        properties.put("deployer.ui.taglib.dtd", tldPath + "/liferay-ui.tld");
+        properties.put("deployer.util.taglib.dtd", tldPath + "/liferay-util.tld");
 
         String libPath = (new File(appServerDir, "webapps/ROOT/WEB-INF/lib")).getAbsolutePath();
 
@@ -103,83 +102,107 @@ public class DirectDeploy extends DefaultTask {
                 libPath + "/util-taglib.jar"
         };
 
-        ClassLoader classLoader = getClassLoader(classPath.getFiles());
-        try {
-            deploy("com.liferay.portal.tools.deploy.PortletDeployer", classLoader, args);
-        }
-        catch (ReflectiveOperationException e)  {
-            logger.error("Unable to execute direct deploy portlet", e);
-        }
+        deploy("com.liferay.portal.tools.deploy.PortletDeployer", args, properties, classLoaderUser,
+                "Unable to execute direct deploy portlet");
     }
 
-    private void deployHook() {
+    private void deployHook(Map<String, String> properties, String classLoaderUser) {
         String libPath = (new File(appServerDir, "webapps/ROOT/WEB-INF/lib")).getAbsolutePath();
 
         String[] args = {libPath + "/util-java.jar"};
 
-        ClassLoader classLoader = getClassLoader(classPath.getFiles());
-        try {
-            deploy("com.liferay.portal.tools.deploy.HookDeployer", classLoader, args);
-        }
-        catch (ReflectiveOperationException e)  {
-            logger.error("Unable to execute direct deploy hook.", e);
-        }
+        deploy("com.liferay.portal.tools.deploy.HookDeployer", args, properties, classLoaderUser,
+                "Unable to execute direct deploy hook.");
     }
 
-    private void deployTheme() {
+    private void deployTheme(Map<String, String> properties, String classLoaderUser) {
         String tldPath = (new File(appServerDir, "webapps/ROOT/WEB-INF/tld")).getAbsolutePath();
 
-        System.setProperty("deployer.theme.taglib.dtd", tldPath + "/liferay-theme.tld");
-        System.setProperty("deployer.util.taglib.dtd", tldPath + "/liferay-util.tld");
+        properties.put("deployer.theme.taglib.dtd", tldPath + "/liferay-theme.tld");
+        properties.put("deployer.util.taglib.dtd", tldPath + "/liferay-util.tld");
 
         String libPath = (new File(appServerDir, "webapps/ROOT/WEB-INF/lib")).getAbsolutePath();
 
         String[] args = {libPath + "/util-java.jar", libPath + "/util-taglib.jar"};
 
-        ClassLoader classLoader = getClassLoader(classPath.getFiles());
-        try {
-            deploy("com.liferay.portal.tools.deploy.ThemeDeployer", classLoader, args);
-        }
-        catch (ReflectiveOperationException e)  {
-            logger.error("Unable to execute direct deploy theme.", e);
-        }
+        deploy("com.liferay.portal.tools.deploy.ThemeDeployer", args, properties, classLoaderUser,
+                "Unable to execute direct deploy theme.");
     }
 
-    private ClassLoader getClassLoader (Set<File> classPath) {
+    private void deploy(String className, String[] args, Map<String, String> properties, String classLoaderUser,
+                        String errorMessage) {
+        if (!Boolean.TRUE.equals(getInProcess())) {
 
-        List<URL> urls = new ArrayList<URL>();
+            // a forked deployer has its own system properties, so deploys of several projects can run side by side
 
-        for (File pathFile : classPath) {
-            try {
-                URL url= pathFile.toURI().toURL();
-                urls.add(url);
-            }
-            catch (MalformedURLException e) {
-                logger.info("Unable to import in ClassLoader {}.", e);
+            deployInForkedProcess(className, args, properties);
+            return;
+        }
+
+        // portlet, hook and theme deployers share one class loader per classpath, it stays open between builds
+
+        ClassLoader classLoader = ClassLoaderCache.acquire(classLoaderUser, classPath.getFiles());
+        try {
+            int exitStatus = InProcessTools.run(classLoader, className, args, properties);
+            if (exitStatus != 0) {
+                ClassLoaderCache.discard(classLoaderUser);
+                logger.error("{} The deployer exited with status {}", errorMessage, exitStatus);
             }
         }
+        catch (ReflectiveOperationException e)  {
+            ClassLoaderCache.discard(classLoaderUser);
+            logger.error(errorMessage, e);
+        }
+        finally {
+            ClassLoaderCache.release(classLoader);
+        }
+
+        logClassLoaderStatistics();
+    }
 
-        return new URLClassLoader(urls.toArray(new URL[urls.size()]), null);
+    private void logClassLoaderStatistics() {
+        ClassLoaderCache.Statistics statistics = ClassLoaderCache.getStatistics();
+        Runtime runtime = Runtime.getRuntime();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+
+        logger.info("Deployer class loaders: {} hits, {} misses, {} open, {} closed; heap {} of {} MB used, " +
+                "non heap {} MB used", new Object[] {
+                statistics.getHits(), statistics.getMisses(), statistics.getOpen(), statistics.getClosed(),
+                (runtime.totalMemory() - runtime.freeMemory()) >> 20, runtime.maxMemory() >> 20,
+                nonHeap.getUsed() >> 20
+        });
     }
 
     @TaskAction
     public void directDeploy() throws UnsupportedOperationException {
-        Project project = getProject();
+        deploy(warFile.getParentFile(), warFile.getName(), getPath());
+    }
 
-        System.setProperty("deployer.app.server.type", appServerType);
-        System.setProperty("deployer.base.dir", (new File(project.getBuildDir(), "libs")).getAbsolutePath());
-        System.setProperty("deployer.dest.dir", getDestDir().getAbsolutePath());
-        System.setProperty("deployer.file.pattern", warFile.getName());
-        System.setProperty("deployer.unpack.war", String.valueOf(true));
+    /**
+     * Runs the deployer for this plugin type over the plugins in a folder.
+     *
+     * @param baseDir         the folder that holds the plugins
+     * @param filePattern     the pattern of the names of the plugins in the folder to deploy
+     * @param classLoaderUser identifies the user of the cached class loader of the deployer
+     */
+    void deploy(File baseDir, String filePattern, String classLoaderUser) {
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        properties.put("external-properties", "com/liferay/portal/tools/dependencies/portal-tools.properties");
+        properties.put("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.Log4JLogger");
+        properties.put("deployer.app.server.type", appServerType);
+        properties.put("deployer.base.dir", baseDir.getAbsolutePath());
+        properties.put("deployer.dest.dir", getDestDir().getAbsolutePath());
+        properties.put("deployer.file.pattern", filePattern);
+        properties.put("deployer.unpack.war", String.valueOf(true));
 
         if (pluginType.equals("portlet")) {
-            deployPortlet();
+            deployPortlet(properties, classLoaderUser);
         }
         else if (pluginType.equals("hook")) {
-            deployHook();
+            deployHook(properties, classLoaderUser);
         }
         else if (pluginType.equals("theme")) {
-            deployTheme();
+            deployTheme(properties, classLoaderUser);
         }
         if (pluginType.equals("ext")) {
             throw new UnsupportedOperationException("Ext direct deployment not yet supported.");
@@ -247,4 +270,24 @@ public class DirectDeploy extends DefaultTask {
     public void setWarFile(File warFile) {
         this.warFile = warFile;
     }
+
+    /**
+     * Returns true if the deployer runs inside the Gradle process, false if a new java process is forked for every
+     * deploy.
+     *
+     * @return true if the deployer runs inside the Gradle process, false otherwise
+     */
+    public Boolean getInProcess() {
+        return inProcess;
+    }
+
+    /**
+     * Set to true to run the deployer inside the Gradle process. The classes of the deployer are kept loaded
+     * between deploys, but deploys of several projects no longer run at the same time.
+     *
+     * @param inProcess true to run the deployer inside the Gradle process, false otherwise
+     */
+    public void setInProcess(Boolean inProcess) {
+        this.inProcess = inProcess;
+    }
 }
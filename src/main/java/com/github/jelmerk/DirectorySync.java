@@ -0,0 +1,316 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Helper methods that keep directory trees in sync while touching as few files as possible.
+ *
+ * @author Jelmer Kuperus
+ */
+final class DirectorySync {
+
+    private static final String TEMP_FILE_PREFIX = ".tmp-";
+
+    private DirectorySync() {
+    }
+
+    /**
+     * Makes a target folder an exact copy of a source folder. Files with the same size and timestamp in both
+     * folders are left alone, all other files are copied and files that only exist in the target are deleted.
+     *
+     * @param sourceDir the folder to copy
+     * @param targetDir the folder to make a copy of the source folder
+     * @throws IOException when copying fails
+     */
+    static void mirror(File sourceDir, File targetDir) throws IOException {
+        mirror(Collections.singletonList(sourceDir), targetDir);
+    }
+
+    /**
+     * Makes a target folder an exact copy of the combined content of a number of source folders. When a file
+     * exists in more than one source folder, the file in the last folder wins.
+     *
+     * @param sourceDirs the folders to copy
+     * @param targetDir  the folder to make a copy of the source folders
+     * @throws IOException when copying fails
+     */
+    static void mirror(List<File> sourceDirs, File targetDir) throws IOException {
+        Map<String, File> sourceFiles = new TreeMap<String, File>();
+        for (File sourceDir : sourceDirs) {
+            for (String path : listFiles(sourceDir)) {
+                sourceFiles.put(path, new File(sourceDir, path));
+            }
+        }
+        mirror(sourceFiles, targetDir);
+    }
+
+    /**
+     * Makes a target folder hold exactly the given files.
+     *
+     * @param sourceFiles the files to copy by the relative path they are copied to, using forward slashes
+     * @param targetDir   the folder to make hold the files
+     * @throws IOException when copying fails
+     */
+    static void mirror(Map<String, File> sourceFiles, File targetDir) throws IOException {
+        for (String path : listFiles(targetDir)) {
+            if (!sourceFiles.containsKey(path)) {
+                new File(targetDir, path).delete();
+            }
+        }
+
+        for (Map.Entry<String, File> sourceFile : sourceFiles.entrySet()) {
+            File source = sourceFile.getValue();
+            File target = new File(targetDir, sourceFile.getKey());
+
+            if (target.length() != source.length() || target.lastModified() != source.lastModified()
+                    || !target.isFile()) {
+                copy(source, target);
+            }
+        }
+    }
+
+    /**
+     * Copies the files in a source folder to a target folder, but only the files whose content differs from
+     * the file in the target folder. Files that were present in the source folder before but no longer are, are
+     * deleted from the target folder.
+     *
+     * @param sourceDir     the folder to copy from
+     * @param targetDir     the folder to copy to
+     * @param previousFiles the relative paths of the files that were present in the source folder before
+     * @return the number of files that were copied or deleted
+     * @throws IOException when copying fails
+     */
+    static int publishChanges(File sourceDir, final File targetDir, Set<String> previousFiles) throws IOException {
+        return publishChanges(sourceDir, new TargetDirSelector() {
+            @Override
+            public File getTargetDir(String path) {
+                return targetDir;
+            }
+        }, previousFiles);
+    }
+
+    /**
+     * Copies the files in a source folder to the target folders picked by a selector, but only the files whose
+     * content differs from the file in the target folder. Files that were present in the source folder before but
+     * no longer are, are deleted from their target folder.
+     *
+     * @param sourceDir         the folder to copy from
+     * @param targetDirSelector picks the folder to copy each file to
+     * @param previousFiles     the relative paths of the files that were present in the source folder before
+     * @return the number of files that were copied or deleted
+     * @throws IOException when copying fails
+     */
+    static int publishChanges(File sourceDir, TargetDirSelector targetDirSelector, Set<String> previousFiles)
+            throws IOException {
+        int changes = 0;
+
+        Set<String> sourceFiles = listFiles(sourceDir);
+
+        for (String path : previousFiles) {
+            if (!sourceFiles.contains(path) && new File(targetDirSelector.getTargetDir(path), path).delete()) {
+                changes++;
+            }
+        }
+
+        for (String path : sourceFiles) {
+            File source = new File(sourceDir, path);
+            File target = new File(targetDirSelector.getTargetDir(path), path);
+
+            if (!hasSameContent(source, target)) {
+                copy(source, target);
+                changes++;
+            } else if (source.lastModified() != target.lastModified()) {
+
+                // keep the timestamps aligned so the next mirror does not copy the file back
+
+                source.setLastModified(target.lastModified());
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Returns the relative paths of all files in a folder and its sub folders.
+     *
+     * @param dir the folder to list
+     * @return the relative paths of all files, using forward slashes
+     */
+    static Set<String> listFiles(File dir) {
+        Set<String> files = new TreeSet<String>();
+        listFiles(dir, "", files);
+        return files;
+    }
+
+    /**
+     * Returns true if two files have the same content.
+     *
+     * @param file      a file
+     * @param otherFile another file
+     * @return true if both files exist and have the same content, false otherwise
+     * @throws IOException when one of the files cannot be read
+     */
+    static boolean hasSameContent(File file, File otherFile) throws IOException {
+        if (!file.isFile() || !otherFile.isFile() || file.length() != otherFile.length()) {
+            return false;
+        }
+
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            InputStream otherIn = new BufferedInputStream(new FileInputStream(otherFile));
+            try {
+                int read;
+                while ((read = in.read()) != -1) {
+                    if (read != otherIn.read()) {
+                        return false;
+                    }
+                }
+                return otherIn.read() == -1;
+            } finally {
+                otherIn.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies a file, creating the parent folders of the target if needed. The target gets the timestamp of the
+     * source. The copy is written to a temporary file that then replaces the target, so a target that is a link to
+     * another file, for instance to a file in a shared cache, is never written through.
+     *
+     * @param source the file to copy
+     * @param target the file to copy to
+     * @throws IOException when copying fails
+     */
+    static void copy(File source, File target) throws IOException {
+        target.getParentFile().mkdirs();
+
+        File tempFile = File.createTempFile(TEMP_FILE_PREFIX, null, target.getParentFile());
+        try {
+            InputStream in = new FileInputStream(source);
+            try {
+                OutputStream out = new FileOutputStream(tempFile);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            tempFile.setLastModified(source.lastModified());
+
+            try {
+                Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Hard links a file, falling back to a copy when the file system does not support hard links or the files are on
+     * different file systems. An existing target is deleted first, so a target that is itself a link to another file
+     * is never written through.
+     *
+     * @param source the file to link to
+     * @param target the link to create
+     * @throws IOException when neither linking nor copying succeeds
+     */
+    static void link(File source, File target) throws IOException {
+        target.delete();
+        target.getParentFile().mkdirs();
+
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+        } catch (IOException e) {
+            copy(source, target);
+        } catch (UnsupportedOperationException e) {
+            copy(source, target);
+        }
+    }
+
+    /**
+     * Deletes a file or a folder including everything in it.
+     *
+     * @param file the file or folder to delete
+     */
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void listFiles(File dir, String relativePath, Set<String> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        for (File child : children) {
+            if (child.isDirectory()) {
+                listFiles(child, relativePath + child.getName() + '/', files);
+            } else {
+                files.add(relativePath + child.getName());
+            }
+        }
+    }
+
+    /**
+     * Picks the folder a file is published to.
+     */
+    interface TargetDirSelector {
+
+        /**
+         * Returns the folder to publish a file to.
+         *
+         * @param path the relative path of the file, using forward slashes
+         * @return the folder to publish the file to
+         */
+        File getTargetDir(String path);
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskExecutionException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Implementation of {@link org.gradle.api.Task} that deploys a liferay plugin by updating the exploded web
+ * application in the application server, rather than by dropping the plugin in the autodeploy dir.
+ * <p/>
+ * The entries of the plugin are compared with the entries that were deployed before, and only entries that were
+ * added, changed or removed are written to the exploded web application. Static resources and JSPs are updated in
+ * place. When classes or libraries change, web.xml is touched so the application server reloads the context. When
+ * a descriptor changes, or the plugin was never deployed, the plugin is deployed through the autodeploy dir
+ * instead, because Liferay rewrites descriptors when it deploys a plugin.
+ *
+ * @author Jelmer Kuperus
+ */
+public class ExplodedDeploy extends DefaultTask {
+
+    private static final String TARGET_KEY = "target";
+    private static final String ENTRY_PREFIX = "entry.";
+
+    private static final String WEB_XML_PATH = "WEB-INF/web.xml";
+
+    private File warFile;
+
+    private File explodedDir;
+
+    private File autoDeployDir;
+
+    /**
+     * Performs the exploded deploy task.
+     */
+    @TaskAction
+    public void deployExploded() {
+        File stateFile = new File(getTemporaryDir(), "deployed.properties");
+
+        try {
+            ZipFile zipFile = new ZipFile(getWarFile());
+            try {
+                Map<String, String> entries = readEntries(zipFile);
+                Map<String, String> deployedEntries = loadDeployedEntries(stateFile);
+
+                Set<String> changed = getChangedEntries(entries, deployedEntries);
+                Set<String> removed = getRemovedEntries(entries, deployedEntries);
+
+                if (!getExplodedDir().isDirectory() || deployedEntries.isEmpty()
+                        || containsDescriptor(changed) || containsDescriptor(removed)) {
+                    getLogger().lifecycle("Deploying {} through {}", getWarFile().getName(), getAutoDeployDir());
+                    Deploy.copyAndRecord(getWarFile(), new File(getAutoDeployDir(), getWarFile().getName()),
+                            Deploy.getStateFile(getProject()));
+                } else {
+                    update(zipFile, changed, removed);
+                }
+
+                storeDeployedEntries(stateFile, entries);
+            } finally {
+                zipFile.close();
+            }
+        } catch (IOException e) {
+            throw new TaskExecutionException(this, e);
+        }
+    }
+
+    private void update(ZipFile zipFile, Set<String> changed, Set<String> removed) throws IOException {
+        boolean reload = false;
+
+        for (String path : changed) {
+            extract(zipFile, zipFile.getEntry(path), new File(getExplodedDir(), path));
+            reload |= requiresReload(path);
+        }
+
+        for (String path : removed) {
+            new File(getExplodedDir(), path).delete();
+            reload |= requiresReload(path);
+        }
+
+        if (reload) {
+            new File(getExplodedDir(), WEB_XML_PATH).setLastModified(System.currentTimeMillis());
+        }
+
+        getLogger().lifecycle("Updated {} and removed {} files in {}{}", changed.size(), removed.size(),
+                getExplodedDir(), reload ? ", the context is reloaded" : "");
+    }
+
+    private void extract(ZipFile zipFile, ZipEntry entry, File target) throws IOException {
+        InputStream in = zipFile.getInputStream(entry);
+        try {
+            write(in, target);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a file of an exploded plugin. The content is written to a temporary file next to the target first and
+     * then moved in place, so the application server never reads a half written file.
+     *
+     * @param in     the content of the file
+     * @param target the file to write
+     * @throws IOException when the file cannot be written
+     */
+    static void write(InputStream in, File target) throws IOException {
+        target.getParentFile().mkdirs();
+
+        // a jsp that is read while it is written would be compiled half finished
+
+        File tempFile = File.createTempFile(".deploy-", null, target.getParentFile());
+        try {
+            OutputStream out = new FileOutputStream(tempFile);
+            try {
+                byte[] buffer = new byte[65536];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private static boolean requiresReload(String path) {
+        return path.startsWith("WEB-INF/classes/") || path.startsWith("WEB-INF/lib/");
+    }
+
+    /**
+     * Returns the entries that were added or changed since the previous deploy.
+     *
+     * @param entries         the checksums of the entries of the plugin by their path
+     * @param deployedEntries the checksums of the entries that were deployed before by their path
+     * @return the paths of the entries that were added or changed
+     */
+    static Set<String> getChangedEntries(Map<String, String> entries, Map<String, String> deployedEntries) {
+        Set<String> changed = new TreeSet<String>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (!entry.getValue().equals(deployedEntries.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the entries that were deployed before but are no longer part of the plugin.
+     *
+     * @param entries         the checksums of the entries of the plugin by their path
+     * @param deployedEntries the checksums of the entries that were deployed before by their path
+     * @return the paths of the entries that were removed
+     */
+    static Set<String> getRemovedEntries(Map<String, String> entries, Map<String, String> deployedEntries) {
+        Set<String> removed = new TreeSet<String>(deployedEntries.keySet());
+        removed.removeAll(entries.keySet());
+        return removed;
+    }
+
+    /**
+     * Returns true if a path is a descriptor, which Liferay rewrites when it deploys a plugin.
+     *
+     * @param path the path in the plugin, using forward slashes
+     * @return true if the path sits directly in WEB-INF or META-INF, false otherwise
+     */
+    static boolean isDescriptor(String path) {
+        return (path.startsWith("WEB-INF/") || path.startsWith("META-INF/"))
+                && path.indexOf('/', path.indexOf('/') + 1) == -1;
+    }
+
+    private static boolean containsDescriptor(Set<String> paths) {
+        for (String path : paths) {
+            if (isDescriptor(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, String> readEntries(ZipFile zipFile) {
+        Map<String, String> entries = new TreeMap<String, String>();
+
+        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry entry = zipEntries.nextElement();
+            if (!entry.isDirectory()) {
+                entries.put(entry.getName(), entry.getCrc() + ":" + entry.getSize());
+            }
+        }
+        return entries;
+    }
+
+    private Map<String, String> loadDeployedEntries(File stateFile) {
+        Map<String, String> entries = new HashMap<String, String>();
+        if (!stateFile.isFile()) {
+            return entries;
+        }
+
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(stateFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+
+            // the plugin is deployed through the autodeploy dir
+
+            return entries;
+        }
+
+        // entries deployed to another folder tell nothing about this folder
+
+        if (!getExplodedDir().getAbsolutePath().equals(properties.getProperty(TARGET_KEY))) {
+            return entries;
+        }
+
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(ENTRY_PREFIX)) {
+                entries.put(name.substring(ENTRY_PREFIX.length()), properties.getProperty(name));
+            }
+        }
+        return entries;
+    }
+
+    private void storeDeployedEntries(File stateFile, Map<String, String> entries) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(TARGET_KEY, getExplodedDir().getAbsolutePath());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            properties.setProperty(ENTRY_PREFIX + entry.getKey(), entry.getValue());
+        }
+
+        OutputStream out = new FileOutputStream(stateFile);
+        try {
+            properties.store(out, "deployed entries");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the plugin artifact to deploy.
+     *
+     * @return the plugin artifact to deploy
+     */
+    @InputFile
+    public File getWarFile() {
+        return warFile;
+    }
+
+    /**
+     * Sets the plugin artifact to deploy.
+     *
+     * @param warFile the plugin artifact to deploy
+     */
+    public void setWarFile(File warFile) {
+        this.warFile = warFile;
+    }
+
+    /**
+     * Returns the folder the application server runs the plugin from.
+     *
+     * @return the folder the application server runs the plugin from
+     */
+    public File getExplodedDir() {
+        return explodedDir;
+    }
+
+    /**
+     * Sets the folder the application server runs the plugin from.
+     * If unset this value defaults to the folder named after the plugin in the webapps folder of the application
+     * server
+     *
+     * @param explodedDir the folder the application server runs the plugin from
+     */
+    public void setExplodedDir(File explodedDir) {
+        this.explodedDir = explodedDir;
+    }
+
+    /**
+     * Returns the Liferay autodeploy dir, used when the plugin cannot be updated in place.
+     *
+     * @return the Liferay autodeploy dir
+     */
+    public File getAutoDeployDir() {
+        return autoDeployDir;
+    }
+
+    /**
+     * Sets the Liferay autodeploy dir, used when the plugin cannot be updated in place.
+     *
+     * @param autoDeployDir the Liferay autodeploy dir
+     */
+    public void setAutoDeployDir(File autoDeployDir) {
+        this.autoDeployDir = autoDeployDir;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Records which source file every file in an output folder was created from, along with the size and timestamp the
+ * source file had at the time and optionally a checksum of its content. Tasks use it to leave output files alone
+ * when their source did not change.
+ *
+ * @author Jelmer Kuperus
+ */
+final class FileManifest {
+
+    private static final String SEPARATOR = "|";
+
+    private final Map<String, String> records;
+
+    private FileManifest(Map<String, String> records) {
+        this.records = records;
+    }
+
+    /**
+     * Reads a manifest that was previously stored with {@link #store(File)}.
+     *
+     * @param file the file to read the manifest from
+     * @return the manifest, an empty manifest if the file does not exist or cannot be read
+     */
+    static FileManifest load(File file) {
+        Map<String, String> records = new TreeMap<String, String>();
+
+        if (file.isFile()) {
+            Properties properties = new Properties();
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+
+                // every output file will be created again
+
+                properties.clear();
+            }
+
+            for (String path : properties.stringPropertyNames()) {
+                records.put(path, properties.getProperty(path));
+            }
+        }
+        return new FileManifest(records);
+    }
+
+    /**
+     * Returns true if an output file was created from a source file that did not change since.
+     *
+     * @param path   the relative path of the output file
+     * @param source the source file
+     * @return true if the output file was created from the source file in its current state, false otherwise
+     */
+    boolean isUpToDate(String path, File source) {
+        String record = records.get(path);
+        if (record == null) {
+            return false;
+        }
+
+        String expected = createRecord(source);
+        return record.equals(expected) || record.startsWith(expected + SEPARATOR);
+    }
+
+    /**
+     * Returns the checksum that was recorded for the content of the source file of an output file.
+     *
+     * @param path the relative path of the output file
+     * @return the checksum or null if no checksum was recorded
+     */
+    String getChecksum(String path) {
+        String record = records.get(path);
+        if (record == null) {
+            return null;
+        }
+
+        // records without a checksum end in the timestamp, which is never as long as a checksum
+
+        String checksum = record.substring(record.lastIndexOf(SEPARATOR) + 1);
+        return checksum.matches("[0-9a-f]{32}") ? checksum : null;
+    }
+
+    /**
+     * Records that an output file was created from a source file.
+     *
+     * @param path   the relative path of the output file
+     * @param source the source file
+     */
+    void put(String path, File source) {
+        records.put(path, createRecord(source));
+    }
+
+    /**
+     * Records that an output file was created from a source file with a certain content.
+     *
+     * @param path     the relative path of the output file
+     * @param source   the source file
+     * @param checksum the checksum of the content of the source file
+     */
+    void put(String path, File source, String checksum) {
+        records.put(path, createRecord(source) + SEPARATOR + checksum);
+    }
+
+    /**
+     * Forgets about an output file.
+     *
+     * @param path the relative path of the output file
+     */
+    void remove(String path) {
+        records.remove(path);
+    }
+
+    /**
+     * Returns the relative paths of all output files in this manifest.
+     *
+     * @return the relative paths of all output files
+     */
+    Set<String> getPaths() {
+        return new TreeSet<String>(records.keySet());
+    }
+
+    /**
+     * Stores this manifest.
+     *
+     * @param file the file to store the manifest in
+     * @throws IOException when the file cannot be written
+     */
+    void store(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(records);
+
+        file.getParentFile().mkdirs();
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "file manifest");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String createRecord(File source) {
+        return source.getAbsolutePath() + SEPARATOR + source.length() + SEPARATOR + source.lastModified();
+    }
+}
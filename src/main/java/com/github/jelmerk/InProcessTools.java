@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.Permission;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the main method of a Liferay tool inside the Gradle process.
+ * <p/>
+ * Liferay tools are configured through system properties and call System.exit when they are done. System
+ * properties and the security manager are shared by everything in the daemon, so every tool that runs in process,
+ * whichever task runs it, runs under the same lock. The system properties, the security manager and the context
+ * class loader are restored once the tool has finished.
+ *
+ * @author Jelmer Kuperus
+ */
+final class InProcessTools {
+
+    private static final Object LOCK = new Object();
+
+    private InProcessTools() {
+    }
+
+    /**
+     * Runs the main method of a tool.
+     *
+     * @param classLoader the class loader to load the tool from
+     * @param className   the name of the class that holds the main method
+     * @param args        the arguments to pass to the main method
+     * @param properties  the system properties to set while the tool runs
+     * @return the status the tool passed to System.exit or 0 if it did not call System.exit
+     * @throws ReflectiveOperationException when the tool cannot be found or throws an exception
+     */
+    static int run(ClassLoader classLoader, String className, String[] args, Map<String, String> properties)
+            throws ReflectiveOperationException {
+
+        synchronized (LOCK) {
+            Thread currentThread = Thread.currentThread();
+            ClassLoader contextClassLoader = currentThread.getContextClassLoader();
+            SecurityManager currentSecurityManager = System.getSecurityManager();
+            Map<String, String> currentProperties = new HashMap<String, String>();
+            for (String name : properties.keySet()) {
+                currentProperties.put(name, System.getProperty(name));
+            }
+
+            final int[] exitStatus = new int[1];
+
+            currentThread.setContextClassLoader(classLoader);
+            System.setSecurityManager(new SecurityManager() {
+                public void checkPermission(Permission permission) {
+                }
+                public void checkExit(int status) {
+                    exitStatus[0] = status;
+                    throw new SecurityException();
+                }
+            });
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                System.setProperty(property.getKey(), property.getValue());
+            }
+
+            try {
+                Class<?> clazz = classLoader.loadClass(className);
+                Method method = clazz.getMethod("main", String[].class);
+                method.invoke(null, (Object) args);
+            } catch (InvocationTargetException e) {
+                if (!(e.getCause() instanceof SecurityException)) {
+                    throw e;
+                }
+            } finally {
+                System.setSecurityManager(currentSecurityManager);
+                for (Map.Entry<String, String> property : currentProperties.entrySet()) {
+                    if (property.getValue() == null) {
+                        System.clearProperty(property.getKey());
+                    } else {
+                        System.setProperty(property.getKey(), property.getValue());
+                    }
+                }
+                currentThread.setContextClassLoader(contextClassLoader);
+            }
+            return exitStatus[0];
+        }
+    }
+}
@@ -23,7 +23,10 @@ import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
 import org.gradle.api.invocation.Gradle;
+import org.gradle.api.plugins.JavaPluginConvention;
 import org.gradle.api.plugins.WarPlugin;
+import org.gradle.api.plugins.WarPluginConvention;
+import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.bundling.War;
 
 import java.io.File;
@@ -56,6 +59,21 @@ public class LiferayBasePlugin implements Plugin<Project> {
 
     public static final String DIRECT_DEPLOY_TASK_NAME = "directdeploy";
 
+    /**
+     * The name of the task in the root project that direct deploys the plugins of all projects in one go.
+     */
+    public static final String DIRECT_DEPLOY_ALL_TASK_NAME = "directdeployAll";
+
+    /**
+     * The name of the task that deploys your plugin by updating the exploded plugin in the application server.
+     */
+    public static final String DEPLOY_EXPLODED_TASK_NAME = "deployExploded";
+
+    /**
+     * The name of the task that copies changes to the sources of your plugin to the exploded plugin as they happen.
+     */
+    public static final String WATCH_TASK_NAME = "watch";
+
     public static final String DIRECT_DEPLOY_CONFIGURATION_NAME = "directdeploy";
 
     /**
@@ -73,6 +91,11 @@ public class LiferayBasePlugin implements Plugin<Project> {
 
         configureDirectDeployTaskDefaults(project);
         configureDirectDeployTask(project);
+
+        configureExplodedDeployTaskDefaults(project);
+        configureExplodedDeployTask(project);
+
+        configureWatchTask(project);
     }
 
     private void createDirectDeployConfiguration(Project project) {
@@ -91,6 +114,10 @@ public class LiferayBasePlugin implements Plugin<Project> {
         project.getGradle().addBuildListener(new DirectDeployTaskDefaultsBuildListener(project));
     }
 
+    private void configureExplodedDeployTaskDefaults(Project project) {
+        project.getGradle().addBuildListener(new ExplodedDeployTaskDefaultsBuildListener(project));
+    }
+
     private void configureDeployTask(Project project) {
         War warTask = (War) project.getTasks().getByName(WarPlugin.WAR_TASK_NAME);
 
@@ -111,6 +138,43 @@ public class LiferayBasePlugin implements Plugin<Project> {
 
         project.getGradle().addBuildListener(new DirectDeployTaskBuildListener(directDeploy, warTask));
         directDeploy.dependsOn(warTask);
+
+        AggregateDirectDeploy directDeployAll = getDirectDeployAllTask(project.getRootProject());
+        directDeployAll.getDirectDeploys().add(directDeploy);
+        directDeployAll.dependsOn(warTask);
+    }
+
+    private AggregateDirectDeploy getDirectDeployAllTask(Project rootProject) {
+        AggregateDirectDeploy directDeployAll = (AggregateDirectDeploy) rootProject.getTasks()
+                .findByName(DIRECT_DEPLOY_ALL_TASK_NAME);
+
+        if (directDeployAll == null) {
+            directDeployAll = rootProject.getTasks().create(DIRECT_DEPLOY_ALL_TASK_NAME, AggregateDirectDeploy.class);
+            directDeployAll.setDescription("DirectDeploys the plugins of all projects, grouped by plugin type");
+            directDeployAll.setGroup(LiferayBasePlugin.LIFERAY_GROUP_NAME);
+        }
+        return directDeployAll;
+    }
+
+    private void configureExplodedDeployTask(Project project) {
+        War warTask = (War) project.getTasks().getByName(WarPlugin.WAR_TASK_NAME);
+
+        ExplodedDeploy explodedDeploy = project.getTasks().create(DEPLOY_EXPLODED_TASK_NAME, ExplodedDeploy.class);
+        explodedDeploy.setDescription("Deploys the changes to the plugin into the exploded plugin");
+        explodedDeploy.setGroup(LiferayBasePlugin.LIFERAY_GROUP_NAME);
+
+        project.getGradle().addBuildListener(new ExplodedDeployTaskBuildListener(explodedDeploy, warTask));
+        explodedDeploy.dependsOn(warTask);
+    }
+
+    private void configureWatchTask(Project project) {
+        ExplodedDeploy explodedDeploy = (ExplodedDeploy) project.getTasks().getByName(DEPLOY_EXPLODED_TASK_NAME);
+
+        Watch watch = project.getTasks().create(WATCH_TASK_NAME, Watch.class);
+        watch.setDescription("Copies changes to the plugin to the exploded plugin as they happen");
+        watch.setGroup(LiferayBasePlugin.LIFERAY_GROUP_NAME);
+
+        project.getGradle().addBuildListener(new WatchTaskBuildListener(watch, explodedDeploy));
     }
 
     private static final class DeployTaskDefaultsBuildListener extends BuildAdapter {
@@ -202,6 +266,40 @@ public class LiferayBasePlugin implements Plugin<Project> {
                 if (task.getCustomPortletXML() == null) {
                     task.setCustomPortletXML(Boolean.valueOf(liferayExtension.getCustomPortletXML()));
                 }
+                if (task.getInProcess() == null) {
+                    task.setInProcess(liferayExtension.getDirectDeployInProcess());
+                }
+            }
+        }
+    }
+
+    private static final class ExplodedDeployTaskDefaultsBuildListener extends BuildAdapter {
+        private final Project project;
+
+        private ExplodedDeployTaskDefaultsBuildListener(Project project) {
+            this.project = project;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            project.getTasks().withType(ExplodedDeploy.class, new SetExplodedDeployTaskDefaultsAction(project));
+        }
+
+        private static final class SetExplodedDeployTaskDefaultsAction implements Action<ExplodedDeploy> {
+            private final Project project;
+
+            private SetExplodedDeployTaskDefaultsAction(Project project) {
+                this.project = project;
+            }
+
+            @Override
+            public void execute(ExplodedDeploy task) {
+                LiferayPluginExtension liferayExtension = project.getExtensions()
+                        .getByType(LiferayPluginExtension.class);
+
+                if (task.getAutoDeployDir() == null) {
+                    task.setAutoDeployDir(liferayExtension.getAutoDeployDir());
+                }
             }
         }
     }
@@ -223,6 +321,57 @@ public class LiferayBasePlugin implements Plugin<Project> {
         }
     }
 
+    private static final class ExplodedDeployTaskBuildListener extends BuildAdapter {
+        private final ExplodedDeploy explodedDeploy;
+        private final War warTask;
+
+        private ExplodedDeployTaskBuildListener(ExplodedDeploy explodedDeploy, War warTask) {
+            this.explodedDeploy = explodedDeploy;
+            this.warTask = warTask;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            if (explodedDeploy.getWarFile() == null) {
+                explodedDeploy.setWarFile(warTask.getArchivePath());
+            }
+            if (explodedDeploy.getExplodedDir() == null) {
+                LiferayPluginExtension liferayExtension = warTask.getProject().getExtensions()
+                        .getByType(LiferayPluginExtension.class);
+                explodedDeploy.setExplodedDir(new File(liferayExtension.getAppServerDir(),
+                        "webapps/" + warTask.getBaseName()));
+            }
+        }
+    }
+
+    private static final class WatchTaskBuildListener extends BuildAdapter {
+        private final Watch watch;
+        private final ExplodedDeploy explodedDeploy;
+
+        private WatchTaskBuildListener(Watch watch, ExplodedDeploy explodedDeploy) {
+            this.watch = watch;
+            this.explodedDeploy = explodedDeploy;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            Project project = watch.getProject();
+
+            if (watch.getSourceDirs() == null) {
+                WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
+                watch.setSourceDirs(project.files(warConvention.getWebAppDir()));
+            }
+            if (watch.getClassesDir() == null) {
+                JavaPluginConvention javaConvention = project.getConvention().getPlugin(JavaPluginConvention.class);
+                watch.setClassesDir(javaConvention.getSourceSets().getByName(SourceSet.MAIN_SOURCE_SET_NAME)
+                        .getOutput().getClassesDir());
+            }
+            if (watch.getExplodedDir() == null) {
+                watch.setExplodedDir(explodedDeploy.getExplodedDir());
+            }
+        }
+    }
+
     private static final class DirectDeployTaskBuildListener extends BuildAdapter {
         private final DirectDeploy directDeploy;
         private final War warTask;
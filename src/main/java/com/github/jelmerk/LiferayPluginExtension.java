@@ -36,6 +36,8 @@ import java.util.Map;
  */
 public class LiferayPluginExtension {
 
+    private static final long DEFAULT_SASS_CACHE_MAX_SIZE = 256L * 1024 * 1024;
+
     private final Project project;
 
     private String appServerDirName;
@@ -49,6 +51,17 @@ public class LiferayPluginExtension {
     private String destDirName;
     private String customPortletXML;
 
+    private boolean sassInProcess;
+
+    private boolean directDeployInProcess;
+
+    private int sassParallelism = 1;
+
+    private String sassCacheDirName;
+    private long sassCacheMaxSize = DEFAULT_SASS_CACHE_MAX_SIZE;
+
+    private boolean leanWar;
+
     /**
      * Constructs a new LiferayPluginExtension.
      *
@@ -198,6 +211,137 @@ public class LiferayPluginExtension {
         this.customPortletXML = customPortletXML;
     }
 
+    /**
+     * Returns true if sass files are processed inside the Gradle process, false if a new java process is forked
+     * for every run.
+     *
+     * @return true if sass files are processed inside the Gradle process, false otherwise
+     */
+    public boolean getSassInProcess() {
+        return sassInProcess;
+    }
+
+    /**
+     * Set to true to process sass files inside the Gradle process, which saves starting the sass engine on
+     * every run. If unset this value defaults to false
+     *
+     * @param sassInProcess true to process sass files inside the Gradle process, false otherwise
+     */
+    public void setSassInProcess(boolean sassInProcess) {
+        this.sassInProcess = sassInProcess;
+    }
+
+    /**
+     * Returns true if the Liferay deployers run inside the Gradle process, false if a new java process is forked
+     * for every direct deploy.
+     *
+     * @return true if the Liferay deployers run inside the Gradle process, false otherwise
+     */
+    public boolean getDirectDeployInProcess() {
+        return directDeployInProcess;
+    }
+
+    /**
+     * Set to true to run the Liferay deployers inside the Gradle process, which saves starting a java process for
+     * every direct deploy but makes direct deploys of several projects wait for each other.
+     * If unset this value defaults to false
+     *
+     * @param directDeployInProcess true to run the Liferay deployers inside the Gradle process, false otherwise
+     */
+    public void setDirectDeployInProcess(boolean directDeployInProcess) {
+        this.directDeployInProcess = directDeployInProcess;
+    }
+
+    /**
+     * Returns the maximum number of sass compilations that run at the same time.
+     *
+     * @return the maximum number of sass compilations that run at the same time
+     */
+    public int getSassParallelism() {
+        return sassParallelism;
+    }
+
+    /**
+     * Sets the maximum number of sass compilations that run at the same time. Stylesheets in folders that do not
+     * contain each other are compiled separately. If unset this value defaults to 1
+     *
+     * @param sassParallelism the maximum number of sass compilations that run at the same time
+     */
+    public void setSassParallelism(int sassParallelism) {
+        this.sassParallelism = sassParallelism;
+    }
+
+    /**
+     * Returns the path to the folder that holds compiled stylesheets, shared by all projects that use it.
+     *
+     * @return the path to the folder that holds compiled stylesheets or null if compiled stylesheets are not cached
+     */
+    public String getSassCacheDirName() {
+        return sassCacheDirName;
+    }
+
+    /**
+     * Sets the path to the folder that holds compiled stylesheets. Projects that compile the same stylesheets
+     * against the same portal can share this folder. If unset compiled stylesheets are not cached
+     *
+     * @param sassCacheDirName the path to the folder that holds compiled stylesheets
+     */
+    public void setSassCacheDirName(String sassCacheDirName) {
+        this.sassCacheDirName = sassCacheDirName;
+    }
+
+    /**
+     * Returns the maximum size in bytes of the folder that holds compiled stylesheets.
+     *
+     * @return the maximum size in bytes of the folder that holds compiled stylesheets
+     */
+    public long getSassCacheMaxSize() {
+        return sassCacheMaxSize;
+    }
+
+    /**
+     * Sets the maximum size in bytes of the folder that holds compiled stylesheets. If unset this value
+     * defaults to 256 megabytes
+     *
+     * @param sassCacheMaxSize the maximum size in bytes of the folder that holds compiled stylesheets
+     */
+    public void setSassCacheMaxSize(long sassCacheMaxSize) {
+        this.sassCacheMaxSize = sassCacheMaxSize;
+    }
+
+    /**
+     * Returns true if the war only holds the compiled stylesheets, false if it also holds the sass sources and the
+     * stylesheets they were compiled from.
+     *
+     * @return true if the war only holds the compiled stylesheets, false otherwise
+     */
+    public boolean getLeanWar() {
+        return leanWar;
+    }
+
+    /**
+     * Set to true to leave the sass sources, stale .sass-cache folders and the uncompiled versions of compiled
+     * stylesheets out of the war. If unset this value defaults to false
+     *
+     * @param leanWar true if the war only holds the compiled stylesheets, false otherwise
+     */
+    public void setLeanWar(boolean leanWar) {
+        this.leanWar = leanWar;
+    }
+
+    /**
+     * Returns a file pointing to the folder that holds compiled stylesheets.
+     *
+     * @return a file pointing to the folder that holds compiled stylesheets or null if compiled stylesheets are
+     *         not cached
+     */
+    public File getSassCacheDir() {
+        if (getSassCacheDirName() == null) {
+            return null;
+        }
+        return project.file(getSassCacheDirName());
+    }
+
     /**
      * Returns a file pointing to the root folder of the application server that Liferay is running in.
      *
@@ -16,22 +16,33 @@
 
 package com.github.jelmerk;
 
-import org.apache.tools.ant.taskdefs.Copy;
-import org.apache.tools.ant.types.FileSet;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskExecutionException;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Implementation of {@link org.gradle.api.Task} that merges a parent theme and the diffs defined in a theme plugin.
  * When creating a theme in Liferay you usually extend from a parent theme and overwrite only certain files in the
  * childs (the diff)
+ * <p/>
+ * A manifest of the copied files is kept between runs, so only files that were added or changed in the parent theme
+ * are copied and files that no longer exist in the parent theme are deleted. Other files are left alone.
+ * <p/>
+ * When a base theme cache folder is set, the files of a Liferay base theme are copied into that folder once and
+ * hard linked from there, so theme projects that extend the same base theme share the files on disk.
  *
  * @author Jelmer Kuperus
  */
@@ -47,6 +58,8 @@ public class MergeTheme extends DefaultTask {
 
     private File outputDir;
 
+    private File baseThemeCacheDir;
+
     /**
      * Performs the merge theme task.
      */
@@ -56,42 +69,130 @@ public class MergeTheme extends DefaultTask {
             throw new InvalidUserDataException("Please specify either parentThemeName or parentThemeProjectName " +
                     "but not both.");
         }
-        if (getParentThemeName() != null) {
-            copyLiferayTheme();
+        File manifestFile = new File(getTemporaryDir(), "manifest.properties");
+        boolean firstRun = !manifestFile.isFile();
+        FileManifest manifest = FileManifest.load(manifestFile);
+
+        Map<String, File> sources = findSources();
+        boolean cached = getBaseThemeCacheDir() != null && getParentThemeName() != null;
+
+        int deleted = 0;
+        for (String path : firstRun ? DirectorySync.listFiles(getOutputDir()) : manifest.getPaths()) {
+            if (!sources.containsKey(path)) {
+                new File(getOutputDir(), path).delete();
+                manifest.remove(path);
+                deleted++;
+            }
         }
-        if (getParentThemeProjectName() != null) {
-            copyProjectTheme();
+
+        int copied = 0;
+        try {
+            if (cached) {
+                sources = new BaseThemeCache(getBaseThemeCacheDir())
+                        .get(getAppServerPortalDir(), getParentThemeName(), getThemeType(), sources);
+            }
+            for (Map.Entry<String, File> source : sources.entrySet()) {
+                if (merge(source.getKey(), source.getValue(), cached, manifest)) {
+                    copied++;
+                }
+            }
+        } catch (IOException e) {
+            throw new TaskExecutionException(this, e);
+        } finally {
+            try {
+                manifest.store(manifestFile);
+            } catch (IOException e) {
+                getLogger().warn("Unable to store the merged theme manifest", e);
+            }
         }
 
+        getLogger().info("Copied {} and deleted {} of {} parent theme files", copied, deleted, sources.size());
     }
 
-    private void copyLiferayTheme() {
+    private boolean merge(String path, File source, boolean link, FileManifest manifest) throws IOException {
+        File target = new File(getOutputDir(), path);
+
+        if (target.isFile() && manifest.isUpToDate(path, source)) {
+            return false;
+        }
+
+        // the timestamps of the parent theme change when the portal is redeployed, the content usually does not
+
+        String checksum = Checksums.checksum(source);
+        if (target.isFile() && target.length() == source.length() && checksum.equals(manifest.getChecksum(path))) {
+            manifest.put(path, source, checksum);
+            return false;
+        }
+
+        if (link) {
+            DirectorySync.link(source, target);
+        } else {
+
+            // the target may be linked to the base theme cache by an earlier run
+
+            target.delete();
+            DirectorySync.copy(source, target);
+        }
+        manifest.put(path, source, checksum);
+        return true;
+    }
+
+    private Map<String, File> findSources() {
+        return getParentThemeOverlay().resolve();
+    }
+
+    /**
+     * Returns the parent theme as an overlay of the folders it is made of.
+     *
+     * @return the parent theme
+     */
+    ThemeOverlay getParentThemeOverlay() {
+        return new ThemeOverlay(getLayers());
+    }
+
+    private List<ThemeOverlay.Layer> getLayers() {
+        if (getParentThemeProjectName() != null) {
+            return getProjectThemeLayers();
+        }
         if ("_unstyled".equals(getParentThemeName())) {
-            copyUnstyledTheme();
+            return getUnstyledThemeLayers();
         } else if ("_styled".equals(getParentThemeName())) {
-            copyStyledTheme();
+            return getStyledThemeLayers();
         } else if ("classic".equals(getParentThemeName())) {
-            copyClassicTheme();
+            return getClassicThemeLayers();
         }
+        return Collections.emptyList();
     }
 
-    private void copyProjectTheme() {
-        MergeTheme mergeTask = (MergeTheme) getProject().project(parentThemeProjectName)
-                .getTasks().getByName(ThemePlugin.MERGE_THEME_TASK_NAME);
+    /**
+     * Returns the task that assembles the parent theme project. This task depends on it.
+     *
+     * @return the task that assembles the parent theme project
+     */
+    SnapshotTheme getParentThemeSnapshotTask() {
+        return (SnapshotTheme) getProject().project(parentThemeProjectName)
+                .getTasks().getByName(ThemePlugin.SNAPSHOT_THEME_TASK_NAME);
+    }
 
-        mergeTask.execute(); // TODO does not work
+    private List<ThemeOverlay.Layer> getProjectThemeLayers() {
 
-        File parentThemeOutputDir = mergeTask.getOutputDir();
-        copy(parentThemeOutputDir, null, "WEB-INF", getOutputDir());
-    }
+        // all child themes of a parent theme project use the one snapshot the parent project assembled
 
+        File parentThemeSnapshotDir = getParentThemeSnapshotTask().getSnapshotDir();
 
+        List<ThemeOverlay.Layer> layers = new ArrayList<ThemeOverlay.Layer>();
+        layers.add(new ThemeOverlay.Layer(parentThemeSnapshotDir, null, "WEB-INF/**"));
+        return layers;
+    }
 
-    private void copyUnstyledTheme() {
+    private List<ThemeOverlay.Layer> getUnstyledThemeLayers() {
+        File unstyledThemeDir = new File(getAppServerPortalDir(), "html/themes/_unstyled");
 
-        copy(new File(getAppServerPortalDir(), "html/themes/_unstyled"), null, "templates/**", getOutputDir());
-        copy(new File(getAppServerPortalDir(), "html/themes/_unstyled/templates"), "*." + getThemeType(),
-                "init." + getThemeType(), new File(getOutputDir(), "templates"));
+        List<ThemeOverlay.Layer> layers = new ArrayList<ThemeOverlay.Layer>();
+        layers.add(new ThemeOverlay.Layer(unstyledThemeDir, null, "templates/**"));
+        layers.add(new ThemeOverlay.Layer(unstyledThemeDir, "templates/*." + getThemeType(),
+                "templates/init." + getThemeType()));
+        return layers;
 
         /*
             <copy todir="docroot" overwrite="true">
@@ -111,9 +212,10 @@ public class MergeTheme extends DefaultTask {
          */
     }
 
-    private void copyStyledTheme() {
-        copyUnstyledTheme();
-        copy(new File(getAppServerPortalDir(), "html/themes/_styled"), null, null, getOutputDir());
+    private List<ThemeOverlay.Layer> getStyledThemeLayers() {
+        List<ThemeOverlay.Layer> layers = getUnstyledThemeLayers();
+        layers.add(new ThemeOverlay.Layer(new File(getAppServerPortalDir(), "html/themes/_styled"), null, null));
+        return layers;
 
         /*
             <copy todir="docroot" overwrite="true">
@@ -139,13 +241,13 @@ public class MergeTheme extends DefaultTask {
          */
     }
 
-    private void copyClassicTheme() {
-        copy(new File(getAppServerPortalDir(), "html/themes/classic"), null, "_diffs/**,templates/**",
-                getOutputDir());
-
-        copy(new File(getAppServerPortalDir(), "html/themes/classic/templates"), "*." + getThemeType(), null,
-                new File(getOutputDir(), "templates"));
+    private List<ThemeOverlay.Layer> getClassicThemeLayers() {
+        File classicThemeDir = new File(getAppServerPortalDir(), "html/themes/classic");
 
+        List<ThemeOverlay.Layer> layers = new ArrayList<ThemeOverlay.Layer>();
+        layers.add(new ThemeOverlay.Layer(classicThemeDir, null, "_diffs/**,templates/**"));
+        layers.add(new ThemeOverlay.Layer(classicThemeDir, "templates/*." + getThemeType(), null));
+        return layers;
 
         /*
             <copy todir="docroot" overwrite="true">
@@ -164,20 +266,14 @@ public class MergeTheme extends DefaultTask {
          */
     }
 
-
-    private void copy(File dir, String includes, String excludes, File toDir) {
-
-        FileSet fileSet = new FileSet();
-        fileSet.setDir(dir);
-        fileSet.setIncludes(includes);
-        fileSet.setExcludes(excludes);
-
-        Copy copy = new Copy();
-        copy.setTodir(toDir);
-        copy.setOverwrite(true);
-        copy.add(fileSet);
-        copy.setProject(getAnt().getProject());
-        copy.execute();
+    /**
+     * Returns the files of the parent theme.
+     *
+     * @return the files of the parent theme
+     */
+    @InputFiles
+    public FileCollection getSourceFiles() {
+        return getProject().files(getParentThemeOverlay().getFileTrees(getProject()));
     }
 
     @Input
@@ -209,7 +305,7 @@ public class MergeTheme extends DefaultTask {
         this.themeType = themeType;
     }
 
-    @InputDirectory
+    @Input
     public File getAppServerPortalDir() {
         return appServerPortalDir;
     }
@@ -218,6 +314,24 @@ public class MergeTheme extends DefaultTask {
         this.appServerPortalDir = appServerPortalDir;
     }
 
+    /**
+     * Returns the folder that holds the Liferay base themes shared by all theme projects.
+     *
+     * @return the folder that holds the Liferay base themes or null if base themes are not cached
+     */
+    public File getBaseThemeCacheDir() {
+        return baseThemeCacheDir;
+    }
+
+    /**
+     * Sets the folder that holds the Liferay base themes shared by all theme projects.
+     *
+     * @param baseThemeCacheDir the folder that holds the Liferay base themes
+     */
+    public void setBaseThemeCacheDir(File baseThemeCacheDir) {
+        this.baseThemeCacheDir = baseThemeCacheDir;
+    }
+
     @OutputDirectory
     public File getOutputDir() {
         return outputDir;
@@ -21,21 +21,15 @@ import org.gradle.api.Action;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
-import org.gradle.api.file.*;
+import org.gradle.api.file.FileCopyDetails;
 import org.gradle.api.invocation.Gradle;
 import org.gradle.api.plugins.WarPlugin;
 import org.gradle.api.plugins.WarPluginConvention;
-import org.gradle.api.tasks.AbstractCopyTask;
-import org.gradle.api.tasks.Copy;
 import org.gradle.api.tasks.bundling.War;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.Callable;
 
-import static java.util.Arrays.asList;
-
 /**
  * Implementation of plugin delegate class that adds tasks and configuration for compiling sass css files.
  *
@@ -50,38 +44,28 @@ public class SassCompilationPluginDelegate {
     public static final String SASS_TO_CSS_TASK_NAME = "sassToCss";
 
     /**
-     * The name of the task that copies css files to the the sass directory in the build folder
+     * The name of the task that gathers the stylesheets in the sass directory in the build folder
      * for processing by sassToCss.
      */
-    public static final String COPY_SASS_FILES_TASK_NAME = "copySassFiles";
+    public static final String STAGE_SASS_TASK_NAME = "stageSass";
 
     /**
      * The name of the configuration that holds the classes required to run sassToCss.
      */
     public static final String SASS_CONFIGURATION_NAME = "sass";
 
-    /**
-     * The name of the task that copies the merged theme files in the build folder.
-     */
-    public static final String COPY_THEME_FILES_TASK_NAME = "copyThemeFiles";
-
-    /**
-     * The name of the task that copies the compiled css files from .sass-cache to the main directory.
-     */
-    public static final String COPY_CSS_FROM_CACHE_TASK_NAME = "copyCssFromCache";
-
     private static final String SASS_OUTPUT_DIR = "sass";
 
+    private static final String COMPILED_CSS_DIR = "css";
+
 
     public void doApply(Project project) {
         createSassConfiguration(project);
 
         configureSassToCssTaskDefaults(project);
 
-        createCopyThemeFilesTask(project);
-        createCopySassFilesTask(project);
+        createStageSassTask(project);
         createSassToCssTask(project);
-        createCopyCssFromCacheTask(project);
         addSassCompilationToWarTask(project);
     }
 
@@ -95,70 +79,30 @@ public class SassCompilationPluginDelegate {
         project.getGradle().addBuildListener(new SassToCssTaskDefaultsBuildListener(project));
     }
 
-    private void createCopyThemeFilesTask(Project project) {
-        project.getTasks().create(COPY_THEME_FILES_TASK_NAME, Copy.class)
-                .from(new File(project.getBuildDir(), ThemePlugin.MERGE_TASK_PARENT_SOURCE_DIR))
-                .setIncludes(asList("**/*"))
-                .setExcludes(asList("**/.sass-cache/**/*"))
-                .into(new File(project.getBuildDir(), SASS_OUTPUT_DIR));
-    }
-
-    private void createCopySassFilesTask(Project project) {
-        Task copyThemeCssFilesTask = project.getTasks().getByName(COPY_THEME_FILES_TASK_NAME);
-
-        AbstractCopyTask task = project.getTasks().create(COPY_SASS_FILES_TASK_NAME, Copy.class)
-            .from(new WebAppDirCallable(project))
-            .setIncludes(asList("**/*"))
-            .into(new File(project.getBuildDir(), SASS_OUTPUT_DIR));
-
-        task.dependsOn(copyThemeCssFilesTask);
+    private void createStageSassTask(Project project) {
+        StageSass task = project.getTasks().create(STAGE_SASS_TASK_NAME, StageSass.class);
+        task.setSourceDirs(project.files(
+                new File(project.getBuildDir(), ThemePlugin.MERGE_TASK_PARENT_SOURCE_DIR),
+                new WebAppDirCallable(project)));
+        task.setStagingDir(new File(project.getBuildDir(), SASS_OUTPUT_DIR));
     }
 
     private void createSassToCssTask(Project project) {
-        Task prepareSassTask = project.getTasks().getByName(COPY_SASS_FILES_TASK_NAME);
+        Task stageSassTask = project.getTasks().getByName(STAGE_SASS_TASK_NAME);
 
         SassToCss task = project.getTasks().create(SASS_TO_CSS_TASK_NAME, SassToCss.class);
         task.setSassDir(new File(project.getBuildDir(), SASS_OUTPUT_DIR));
-        task.dependsOn(prepareSassTask);
-    }
-
-    private void createCopyCssFromCacheTask(Project project) {
-        Task sassToCssTask = project.getTasks().getByName(SASS_TO_CSS_TASK_NAME);
-
-        AbstractCopyTask task = project.getTasks().create(COPY_CSS_FROM_CACHE_TASK_NAME, Copy.class)
-                .from(new File(project.getBuildDir(), SASS_OUTPUT_DIR))
-                .setIncludes(asList("**/.sass-cache/**/*"))
-                .eachFile(new Action<FileCopyDetails>() {
-                    @Override
-                    public void execute(FileCopyDetails fileCopyDetails) {
-                        RelativePath relativePath = fileCopyDetails.getRelativePath();
-                        RelativePath parentPath = relativePath.getParent();
-                        if (relativePath.isFile() &&
-                                parentPath.getLastName().equals(".sass-cache")) {
-                            parentPath = parentPath.replaceLastName(relativePath.getLastName());
-                            RelativePath updatedPath = RelativePath.parse(true, parentPath.getPathString());
-                            fileCopyDetails.setRelativePath(updatedPath);
-                        }
-                    }
-                })
-                .into(new File(project.getBuildDir(), SASS_OUTPUT_DIR));
-
-        task.dependsOn(sassToCssTask);
+        task.setOutputDir(new File(project.getBuildDir(), COMPILED_CSS_DIR));
+        task.dependsOn(stageSassTask);
     }
 
     private void addSassCompilationToWarTask(Project project) {
-        Task copyCssFromCacheTask = project.getTasks().getByName(COPY_CSS_FROM_CACHE_TASK_NAME);
+        SassToCss sassToCssTask = (SassToCss) project.getTasks().getByName(SASS_TO_CSS_TASK_NAME);
 
         War warTask = (War) project.getTasks().getByName(WarPlugin.WAR_TASK_NAME);
-        warTask.dependsOn(copyCssFromCacheTask);
-
-        Map<String, Object> args = new HashMap<String, Object>();
-        args.put("dir", new File(project.getBuildDir(), SASS_OUTPUT_DIR));
-        args.put("include", "**/*");
-
-        FileTree generatedSassCaches = project.fileTree(args);
-
-        warTask.from(generatedSassCaches);
+        warTask.dependsOn(sassToCssTask);
+        warTask.from(sassToCssTask.getOutputDir());
+        warTask.eachFile(new LeanWarAction(project, sassToCssTask.getOutputDir()));
     }
 
     private static final class SassToCssTaskDefaultsBuildListener extends BuildAdapter {
@@ -208,6 +152,54 @@ public class SassCompilationPluginDelegate {
                 if (task.getAppServerPortalDir() == null) {
                     task.setAppServerPortalDir(liferayPluginExtension.getAppServerPortalDir());
                 }
+                if (task.getInProcess() == null) {
+                    task.setInProcess(liferayPluginExtension.getSassInProcess());
+                }
+                if (task.getParallelism() == null) {
+                    task.setParallelism(liferayPluginExtension.getSassParallelism());
+                }
+                if (task.getCacheDir() == null) {
+                    task.setCacheDir(liferayPluginExtension.getSassCacheDir());
+                }
+                if (task.getCacheMaxSize() == null) {
+                    task.setCacheMaxSize(liferayPluginExtension.getSassCacheMaxSize());
+                }
+            }
+        }
+    }
+
+    private static final class LeanWarAction implements Action<FileCopyDetails> {
+        private final Project project;
+        private final File compiledCssDir;
+
+        private LeanWarAction(Project project, File compiledCssDir) {
+            this.project = project;
+            this.compiledCssDir = compiledCssDir;
+        }
+
+        @Override
+        public void execute(FileCopyDetails fileCopyDetails) {
+            LiferayPluginExtension liferayExtension = project.getExtensions()
+                    .getByType(LiferayPluginExtension.class);
+
+            if (!liferayExtension.getLeanWar()) {
+                return;
+            }
+
+            String path = fileCopyDetails.getRelativePath().getPathString();
+            File compiledFile = new File(compiledCssDir, path);
+
+            if (fileCopyDetails.getFile().equals(compiledFile)) {
+                return;
+            }
+
+            // the compiled stylesheets replace the stylesheets they were compiled from, the sass sources and any
+            // .sass-cache folder that did not come out of sassToCss are not used at runtime
+
+            if (path.endsWith(".scss") || path.endsWith(".sass")
+                    || path.startsWith(".sass-cache/") || path.contains("/.sass-cache/")
+                    || compiledFile.exists()) {
+                fileCopyDetails.exclude();
             }
         }
     }
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The @import graph of a tree of stylesheets. For every stylesheet that is compiled on its own, an entry, it
+ * calculates a key from the content of the entry and of every file it imports directly or indirectly, so a
+ * change to a shared partial marks every entry that uses it as changed.
+ * <p/>
+ * The graph is persisted between builds. Files whose size and timestamp did not change are not read again.
+ *
+ * @author Jelmer Kuperus
+ */
+final class SassImportGraph {
+
+    private static final String FILE_PREFIX = "file.";
+    private static final String ENTRY_PREFIX = "entry.";
+
+    private static final String SEPARATOR = "|";
+
+    private static final Pattern IMPORT_PATTERN = Pattern.compile("@import\\s+([^;{}]+);");
+    private static final Pattern URL_PATTERN = Pattern.compile("url\\(\\s*['\"]?([^'\")]+?)['\"]?\\s*\\)");
+
+    private static final String[] PREFIXES = {"", "_"};
+    private static final String[] EXTENSIONS = {"", ".scss", ".sass", ".css"};
+
+    private final Map<String, FileRecord> previousFiles;
+    private final Map<String, String> previousEntryKeys;
+
+    private final Map<String, FileRecord> files = new TreeMap<String, FileRecord>();
+    private final Map<String, String> entryKeys = new TreeMap<String, String>();
+
+    private SassImportGraph(Map<String, FileRecord> previousFiles, Map<String, String> previousEntryKeys) {
+        this.previousFiles = previousFiles;
+        this.previousEntryKeys = previousEntryKeys;
+    }
+
+    /**
+     * Reads a graph that was previously stored with {@link #store(File)}.
+     *
+     * @param stateFile the file to read the graph from
+     * @return the graph, an empty graph if the file does not exist or cannot be read
+     */
+    static SassImportGraph load(File stateFile) {
+        Map<String, FileRecord> files = new HashMap<String, FileRecord>();
+        Map<String, String> entryKeys = new HashMap<String, String>();
+
+        if (stateFile.isFile()) {
+            Properties properties = new Properties();
+            try {
+                InputStream in = new FileInputStream(stateFile);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+
+                // start from scratch, every entry will be compiled
+
+                properties.clear();
+            }
+
+            for (String name : properties.stringPropertyNames()) {
+                String value = properties.getProperty(name);
+                if (name.startsWith(FILE_PREFIX)) {
+                    files.put(name.substring(FILE_PREFIX.length()), FileRecord.parse(value));
+                } else if (name.startsWith(ENTRY_PREFIX)) {
+                    entryKeys.put(name.substring(ENTRY_PREFIX.length()), value);
+                }
+            }
+        }
+        return new SassImportGraph(files, entryKeys);
+    }
+
+    /**
+     * Calculates the keys of entries.
+     *
+     * @param baseDir    the folder the entries are relative to
+     * @param entries    the relative paths of the entries
+     * @param importDirs folders that imports are resolved against when they are not found next to the importing
+     *                   file
+     * @param globalKey  a value that affects all entries, such as the classpath of the sass engine
+     * @throws IOException when a file cannot be read
+     */
+    void calculateEntryKeys(File baseDir, Collection<String> entries, List<File> importDirs, String globalKey)
+            throws IOException {
+
+        for (String entry : entries) {
+            Set<File> closure = new TreeSet<File>();
+            addImports(new File(baseDir, entry), importDirs, closure);
+
+            // the key does not depend on where the files are, so projects with the same stylesheets share keys
+
+            MessageDigest digest = Checksums.newDigest();
+            Checksums.update(digest, globalKey + ';' + entry + ';');
+            for (File file : closure) {
+                Checksums.update(digest, getLocationIndependentName(file, baseDir, importDirs) + '='
+                        + getRecord(file).hash + ';');
+            }
+            entryKeys.put(entry, Checksums.toHex(digest.digest()));
+        }
+    }
+
+    /**
+     * Returns the key of an entry calculated by {@link #calculateEntryKeys(File, Collection, List, String)}.
+     *
+     * @param entry the relative path of the entry
+     * @return the key of the entry or null if it was not calculated
+     */
+    String getEntryKey(String entry) {
+        return entryKeys.get(entry);
+    }
+
+    /**
+     * Forgets the key of an entry, so the entry counts as changed the next time the graph is loaded, for instance
+     * because it failed to compile.
+     *
+     * @param entry the relative path of the entry
+     */
+    void forget(String entry) {
+        entryKeys.remove(entry);
+    }
+
+    /**
+     * Returns the entries whose key differs from the key that was stored with the graph.
+     *
+     * @return the relative paths of the entries that changed
+     */
+    Set<String> getChangedEntries() {
+        Set<String> changedEntries = new TreeSet<String>();
+        for (Map.Entry<String, String> entryKey : entryKeys.entrySet()) {
+            if (!entryKey.getValue().equals(previousEntryKeys.get(entryKey.getKey()))) {
+                changedEntries.add(entryKey.getKey());
+            }
+        }
+        return changedEntries;
+    }
+
+    /**
+     * Returns the entries that were stored with the graph but no longer exist.
+     *
+     * @return the relative paths of the entries that were removed
+     */
+    Set<String> getRemovedEntries() {
+        Set<String> removedEntries = new TreeSet<String>(previousEntryKeys.keySet());
+        removedEntries.removeAll(entryKeys.keySet());
+        return removedEntries;
+    }
+
+    /**
+     * Stores this graph.
+     *
+     * @param stateFile the file to store the graph in
+     * @throws IOException when the file cannot be written
+     */
+    void store(File stateFile) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, FileRecord> file : files.entrySet()) {
+            properties.setProperty(FILE_PREFIX + file.getKey(), file.getValue().format());
+        }
+        for (Map.Entry<String, String> entryKey : entryKeys.entrySet()) {
+            properties.setProperty(ENTRY_PREFIX + entryKey.getKey(), entryKey.getValue());
+        }
+
+        stateFile.getParentFile().mkdirs();
+
+        OutputStream out = new FileOutputStream(stateFile);
+        try {
+            properties.store(out, "sass import graph");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String getLocationIndependentName(File file, File baseDir, List<File> importDirs) {
+        List<File> dirs = new ArrayList<File>();
+        dirs.add(baseDir);
+        dirs.addAll(importDirs);
+
+        String path = file.getPath();
+        for (int i = 0; i < dirs.size(); i++) {
+            String dirPath = dirs.get(i).getPath() + File.separator;
+            if (path.startsWith(dirPath)) {
+                return i + ":" + path.substring(dirPath.length()).replace(File.separatorChar, '/');
+            }
+        }
+        return path;
+    }
+
+    private void addImports(File file, List<File> importDirs, Set<File> closure) throws IOException {
+        if (!closure.add(file)) {
+            return;
+        }
+
+        for (String name : getRecord(file).imports) {
+            List<File> searchDirs = new ArrayList<File>();
+            searchDirs.add(file.getParentFile());
+            searchDirs.addAll(importDirs);
+
+            // we do not know which of the candidates sass picks, depending on all of them is safe
+
+            for (File searchDir : searchDirs) {
+                File imported = new File(searchDir, name);
+                for (String prefix : PREFIXES) {
+                    for (String extension : EXTENSIONS) {
+                        File candidate = new File(imported.getParentFile(), prefix + imported.getName() + extension);
+                        if (candidate.isFile()) {
+                            addImports(candidate, importDirs, closure);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private FileRecord getRecord(File file) throws IOException {
+        String path = file.getPath();
+
+        FileRecord record = files.get(path);
+        if (record != null) {
+            return record;
+        }
+
+        record = previousFiles.get(path);
+        if (record == null || record.length != file.length() || record.lastModified != file.lastModified()) {
+            record = readRecord(file);
+        }
+
+        files.put(path, record);
+        return record;
+    }
+
+    private static FileRecord readRecord(File file) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+
+        MessageDigest digest = Checksums.newDigest();
+        digest.update(content.toByteArray());
+
+        return new FileRecord(file.length(), file.lastModified(), Checksums.toHex(digest.digest()),
+                parseImports(content.toString("UTF-8")));
+    }
+
+    private static List<String> parseImports(String content) {
+        List<String> imports = new ArrayList<String>();
+
+        Matcher matcher = IMPORT_PATTERN.matcher(content);
+        while (matcher.find()) {
+            String target = matcher.group(1).trim();
+
+            Matcher urlMatcher = URL_PATTERN.matcher(target);
+            if (urlMatcher.lookingAt()) {
+                addImport(imports, urlMatcher.group(1));
+                continue;
+            }
+
+            for (String name : target.split(",")) {
+                addImport(imports, name.trim().replaceAll("^['\"]|['\"]$", ""));
+            }
+        }
+        return imports;
+    }
+
+    private static void addImport(List<String> imports, String name) {
+        if (name.length() == 0 || name.contains(SEPARATOR) || name.contains("://") || name.startsWith("//")) {
+            return;
+        }
+        imports.add(name);
+    }
+
+    private static final class FileRecord {
+
+        private final long length;
+        private final long lastModified;
+        private final String hash;
+        private final List<String> imports;
+
+        private FileRecord(long length, long lastModified, String hash, List<String> imports) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.imports = imports;
+        }
+
+        private static FileRecord parse(String value) {
+            String[] parts = value.split(Pattern.quote(SEPARATOR), -1);
+            if (parts.length < 3) {
+                return new FileRecord(-1, -1, "", Collections.<String>emptyList());
+            }
+
+            List<String> imports = new ArrayList<String>();
+            for (int i = 3; i < parts.length; i++) {
+                imports.add(parts[i]);
+            }
+            return new FileRecord(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2], imports);
+        }
+
+        private String format() {
+            StringBuilder value = new StringBuilder();
+            value.append(length).append(SEPARATOR).append(lastModified).append(SEPARATOR).append(hash);
+            for (String name : imports) {
+                value.append(SEPARATOR).append(name);
+            }
+            return value.toString();
+        }
+    }
+}
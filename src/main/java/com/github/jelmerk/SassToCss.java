@@ -16,17 +16,33 @@
 
 package com.github.jelmerk;
 
-import org.apache.tools.ant.Project;
-import org.apache.tools.ant.taskdefs.Java;
-import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.DirectoryScanner;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileTree;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.InputDirectory;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Implementation of {@link org.gradle.api.Task} that processes Syntactically Awesome StyleSheets (SASS) files.
@@ -35,51 +51,425 @@ import java.io.File;
  */
 public class SassToCss extends DefaultTask {
 
+    private static final String PORTAL_LIB_DIR_PROPERTY = "liferay.lib.portal.dir";
+
+    private static final String SASS_CACHE_DIR_NAME = ".sass-cache";
+
     private FileCollection classpath;
 
     private File appServerPortalDir;
 
     private File sassDir;
 
+    private File outputDir;
+
+    private Boolean inProcess;
+
+    private Integer parallelism;
+
+    private File cacheDir;
+
+    private Long cacheMaxSize;
+
     /**
      * Performs the sassToCss task.
      */
     @TaskAction
     public void sassToCss() {
+        File stateFile = new File(getTemporaryDir(), "imports.properties");
+
+        SassImportGraph graph = SassImportGraph.load(stateFile);
+        Set<String> changedEntries = findChangedEntries(graph);
+
+        for (String removedEntry : graph.getRemovedEntries()) {
+            for (File outputFile : getOutputFiles(removedEntry)) {
+                outputFile.delete();
+            }
+        }
+
+        ContentAddressedCache cache = null;
+        if (getCacheDir() != null) {
+            cache = new ContentAddressedCache(getCacheDir(),
+                    getCacheMaxSize() != null ? getCacheMaxSize() : Long.MAX_VALUE);
+        }
+
+        if (cache != null) {
+            restoreFromCache(cache, graph, changedEntries);
+        }
+
+        if (changedEntries.isEmpty()) {
+            getLogger().info("No stylesheet or import changed, skipping the sass to css builder");
+        } else {
+            getLogger().info("Compiling changed stylesheets {}", changedEntries);
+
+            // the builder logs errors rather than failing, only a compiled file it wrote in this run can be trusted
+
+            for (String entry : changedEntries) {
+                getCompiledFile(entry).delete();
+            }
+
+            compile(changedEntries);
+
+            Set<String> failedEntries = publishCompiledFiles(changedEntries);
+
+            if (cache != null) {
+                Set<String> compiledEntries = new TreeSet<String>(changedEntries);
+                compiledEntries.removeAll(failedEntries);
+                storeInCache(cache, graph, compiledEntries);
+            }
+
+            for (String entry : failedEntries) {
+                graph.forget(entry);
+            }
+
+            storeGraph(graph, stateFile);
+
+            if (!failedEntries.isEmpty()) {
+                throw new GradleException("The sass to css builder did not compile " + failedEntries);
+            }
+            return;
+        }
+
+        storeGraph(graph, stateFile);
+    }
+
+    private void storeGraph(SassImportGraph graph, File stateFile) {
+        try {
+            graph.store(stateFile);
+        } catch (IOException e) {
+            getLogger().warn("Unable to store the sass import graph", e);
+        }
+    }
+
+    private void restoreFromCache(ContentAddressedCache cache, SassImportGraph graph, Set<String> changedEntries) {
+        for (Iterator<String> iterator = changedEntries.iterator(); iterator.hasNext();) {
+            String entry = iterator.next();
+            if (cache.get(graph.getEntryKey(entry), getOutputFile(entry))) {
+                getLogger().info("Restored {} from the sass cache", entry);
+                publish(entry, getOutputFile(entry));
+                iterator.remove();
+            }
+        }
+    }
+
+    private Set<String> publishCompiledFiles(Set<String> compiledEntries) {
+        Set<String> failedEntries = new TreeSet<String>();
+        for (String entry : compiledEntries) {
+            File compiledFile = getCompiledFile(entry);
+            if (compiledFile.isFile()) {
+                publish(entry, compiledFile);
+            } else {
+
+                // a stale copy must not be served, nor be taken for compiled in the next run
+
+                for (File outputFile : getOutputFiles(entry)) {
+                    outputFile.delete();
+                }
+                failedEntries.add(entry);
+            }
+        }
+        return failedEntries;
+    }
+
+    private void publish(String entry, File file) {
+        try {
+            for (File outputFile : getOutputFiles(entry)) {
+                if (!outputFile.equals(file) && !DirectorySync.hasSameContent(file, outputFile)) {
+                    DirectorySync.copy(file, outputFile);
+                }
+            }
+        } catch (IOException e) {
+            throw new GradleException("Unable to publish the compiled stylesheet " + entry, e);
+        }
+    }
+
+    private void storeInCache(ContentAddressedCache cache, SassImportGraph graph, Set<String> compiledEntries) {
+        try {
+            for (String entry : compiledEntries) {
 
-        Java javaTask = new Java();
+                // the compiled file was written in this run, other projects get it for the same key
 
-        javaTask.setTaskName("sass to css builder");
-        javaTask.setClassname("com.liferay.portal.tools.SassToCssBuilder");
+                File compiledFile = getCompiledFile(entry);
+                if (compiledFile.isFile()) {
+                    cache.put(graph.getEntryKey(entry), compiledFile);
+                }
+            }
+        } catch (IOException e) {
+            getLogger().warn("Unable to store compiled stylesheets in the sass cache", e);
+        }
+        cache.trim();
+    }
+
+    private void compile(Set<String> changedEntries) {
+        List<String> sassDirNames = getDisjointDirNames(changedEntries);
+        int parallelism = getParallelism() != null ? Math.max(1, getParallelism()) : 1;
 
+        if (Boolean.TRUE.equals(getInProcess())) {
 
-        Project antProject = getAnt().getAntProject();
+            // the builder keeps static state, so runs in the same class loader cannot overlap
 
-        Path antClasspath = new Path(antProject);
+            for (String sassDirName : sassDirNames) {
+                sassToCssInProcess(sassDirName);
+            }
+        } else if (parallelism == 1 || sassDirNames.size() == 1) {
 
-        for (File dep : getClasspath()) {
-            antClasspath.createPathElement()
-                     .setLocation(dep);
+            // starting the builder is the expensive part, a single run over a larger folder is cheaper
+
+            sassToCssInForkedProcess(getCommonDirName(changedEntries));
+        } else {
+            sassToCssInForkedProcesses(sassDirNames, parallelism);
         }
+    }
 
-        javaTask.setProject(antProject);
-        javaTask.setClasspath(antClasspath);
+    private void sassToCssInForkedProcesses(List<String> sassDirNames, int parallelism) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, sassDirNames.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final String sassDirName : sassDirNames) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        sassToCssInForkedProcess(sassDirName);
+                    }
+                }));
+            }
 
-        javaTask.setFork(true);
-        javaTask.setNewenvironment(true);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new GradleException("Unable to run the sass to css builder", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while running the sass to css builder", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<String> getDisjointDirNames(Set<String> entries) {
 
-        javaTask.createArg()
-                .setLine("sass.dir=" + "/");
+        // the builder compiles every stylesheet under the folder it is given, so the folders that hold the
+        // changed stylesheets can be compiled independently once folders inside other folders are left out
 
-        javaTask.createArg()
-                .setLine("sass.docroot.dir=" + getSassDir());
+        Set<String> dirNames = new TreeSet<String>();
+        for (String entry : entries) {
+            dirNames.add(entry.contains("/") ? entry.substring(0, entry.lastIndexOf('/') + 1) : "");
+        }
 
-        javaTask.createArg()
-                .setLine("sass.portal.common.dir=" + new File(getAppServerPortalDir(), "/html/css/common"));
+        List<String> disjointDirNames = new ArrayList<String>();
+        String previousDirName = null;
+        for (String dirName : dirNames) {
+            if (previousDirName == null || !dirName.startsWith(previousDirName)) {
+                disjointDirNames.add("/" + dirName);
+                previousDirName = dirName;
+            }
+        }
+        return disjointDirNames;
+    }
 
-        javaTask.createJvmarg().setLine("-Dliferay.lib.portal.dir=" + new File(getAppServerPortalDir(), "WEB-INF/lib"));
+    private Set<String> findChangedEntries(SassImportGraph graph) {
+        List<String> entries = findEntries();
 
-        javaTask.execute();
+        try {
+            graph.calculateEntryKeys(getSassDir(), entries, Collections.singletonList(getPortalCommonDir()),
+                    calculateGlobalKey());
+        } catch (IOException e) {
+            throw new GradleException("Unable to read the sass imports", e);
+        }
+
+        Set<String> changedEntries = graph.getChangedEntries();
+        for (String entry : entries) {
+            if (!getOutputFile(entry).isFile()) {
+                changedEntries.add(entry);
+            }
+        }
+        return changedEntries;
+    }
+
+    private List<String> findEntries() {
+
+        // the same files the sass to css builder picks up
+
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(getSassDir());
+        scanner.setIncludes(new String[] {"**/*.css"});
+        scanner.setExcludes(new String[] {
+            "**/_diffs/**", "**/.sass-cache*/**", "**/.sass_cache_*/**", "**/_sass_cache_*/**",
+            "**/_styled/**", "**/_unstyled/**"
+        });
+        scanner.scan();
+
+        List<String> entries = new ArrayList<String>();
+        for (String entry : scanner.getIncludedFiles()) {
+            entries.add(entry.replace(File.separatorChar, '/'));
+        }
+        return entries;
+    }
+
+    private String calculateGlobalKey() {
+        StringBuilder key = new StringBuilder(getPortalCommonDir().getAbsolutePath());
+        for (File file : getClasspath()) {
+            key.append(';').append(file.getAbsolutePath()).append(':').append(file.length())
+                    .append(':').append(file.lastModified());
+        }
+        return Checksums.checksum(key.toString());
+    }
+
+    private File getCompiledFile(String entry) {
+        File file = new File(getSassDir(), entry);
+        return new File(file.getParentFile(), SASS_CACHE_DIR_NAME + "/" + file.getName());
+    }
+
+    private File getOutputFile(String entry) {
+        if (getOutputDir() == null) {
+            return getCompiledFile(entry);
+        }
+        return new File(getOutputDir(), entry);
+    }
+
+    private List<File> getOutputFiles(String entry) {
+        List<File> outputFiles = new ArrayList<File>();
+        outputFiles.add(getOutputFile(entry));
+
+        // liferay serves the copy in the .sass-cache folder when it exists, so it has to be published as well
+
+        if (getOutputDir() != null) {
+            File file = new File(getOutputDir(), entry);
+            outputFiles.add(new File(file.getParentFile(), SASS_CACHE_DIR_NAME + "/" + file.getName()));
+        }
+        return outputFiles;
+    }
+
+    private String getCommonDirName(Set<String> entries) {
+
+        // the builder compiles every stylesheet under the folder it is given, so give it the deepest folder that
+        // holds all changed stylesheets
+
+        String commonDirName = null;
+        for (String entry : entries) {
+            String dirName = entry.contains("/") ? entry.substring(0, entry.lastIndexOf('/') + 1) : "";
+            if (commonDirName == null) {
+                commonDirName = dirName;
+            } else {
+                while (!dirName.startsWith(commonDirName)) {
+                    commonDirName = commonDirName.substring(0,
+                            commonDirName.lastIndexOf('/', commonDirName.length() - 2) + 1);
+                }
+            }
+        }
+        return "/" + commonDirName;
+    }
+
+    private void sassToCssInForkedProcess(String sassDirName) {
+
+        // several builders may run at the same time, the ant project of the task is not safe to share between
+        // threads so the process is started directly
+
+        StringBuilder classpathString = new StringBuilder();
+        for (File file : getClasspath()) {
+            if (classpathString.length() > 0) {
+                classpathString.append(File.pathSeparatorChar);
+            }
+            classpathString.append(file.getAbsolutePath());
+        }
+
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        command.add("-D" + PORTAL_LIB_DIR_PROPERTY + "=" + new File(getAppServerPortalDir(), "WEB-INF/lib"));
+        command.add("-cp");
+        command.add(classpathString.toString());
+        command.add("com.liferay.portal.tools.SassToCssBuilder");
+        command.add("sass.dir=" + sassDirName);
+        command.add("sass.docroot.dir=" + getSassDir());
+        command.add("sass.portal.common.dir=" + getPortalCommonDir());
+
+        int exitStatus;
+        try {
+            ProcessBuilder processBuilder = new ProcessBuilder(command).redirectErrorStream(true);
+
+            // like the ant task this replaced, the builder does not see the environment of the Gradle process,
+            // except for the variables windows needs to start a JVM at all
+
+            Map<String, String> environment = processBuilder.environment();
+            environment.keySet().retainAll(Arrays.asList("SystemRoot", "TEMP", "TMP"));
+
+            Process process = processBuilder.start();
+
+            process.getOutputStream().close();
+
+            BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            try {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    getLogger().info(line);
+                }
+            } finally {
+                output.close();
+            }
+
+            exitStatus = process.waitFor();
+        } catch (IOException e) {
+            throw new GradleException("Unable to run the sass to css builder", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while running the sass to css builder", e);
+        }
+
+        if (exitStatus != 0) {
+            throw new GradleException("Sass to css builder exited with status " + exitStatus);
+        }
+    }
+
+    private void sassToCssInProcess(String sassDirName) {
+        String[] args = {
+            "sass.dir=" + sassDirName,
+            "sass.docroot.dir=" + getSassDir(),
+            "sass.portal.common.dir=" + getPortalCommonDir()
+        };
+
+        String user = getPath();
+        ClassLoader classLoader = ClassLoaderCache.acquire(user, getClasspath().getFiles(), getAppServerPortalDir());
+
+        int exitStatus;
+        try {
+            exitStatus = InProcessTools.run(classLoader, "com.liferay.portal.tools.SassToCssBuilder", args,
+                    Collections.singletonMap(PORTAL_LIB_DIR_PROPERTY,
+                            new File(getAppServerPortalDir(), "WEB-INF/lib").getPath()));
+        } catch (ReflectiveOperationException e) {
+            ClassLoaderCache.discard(user);
+            throw new GradleException("Unable to run the sass to css builder", e);
+        } finally {
+            ClassLoaderCache.release(classLoader);
+        }
+
+        if (exitStatus != 0) {
+            ClassLoaderCache.discard(user);
+            throw new GradleException("Sass to css builder exited with status " + exitStatus);
+        }
+    }
+
+    /**
+     * Returns the stylesheets and the files they import. Files in the .sass-cache folders are written by this
+     * task and are not part of it.
+     *
+     * @return the stylesheets and the files they import
+     */
+    @InputFiles
+    public FileCollection getSourceFiles() {
+        ConfigurableFileTree sourceFiles = getProject().fileTree(getSassDir());
+        sourceFiles.exclude("**/.sass-cache/**");
+
+        ConfigurableFileTree portalCommonFiles = getProject().fileTree(getPortalCommonDir());
+
+        return sourceFiles.plus(portalCommonFiles);
+    }
+
+    private File getPortalCommonDir() {
+        return new File(getAppServerPortalDir(), "/html/css/common");
     }
 
     /**
@@ -101,6 +491,29 @@ public class SassToCss extends DefaultTask {
         this.sassDir = sassDir;
     }
 
+    /**
+     * Returns a file pointing to the folder the compiled stylesheets are written to.
+     *
+     * @return a file pointing to the folder the compiled stylesheets are written to or null if they are left in the
+     *         .sass-cache folders of the folder that holds the sass files
+     */
+    @Optional
+    @OutputDirectory
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * Sets the file pointing to the folder the compiled stylesheets are written to. Every compiled stylesheet is
+     * written to the path of its source and to the .sass-cache folder next to it. Stylesheets whose compiled
+     * content did not change are not written.
+     *
+     * @param outputDir the file pointing to the folder the compiled stylesheets are written to
+     */
+    public void setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
     /**
      * Returns a file collection that contains the classes required to run liferay's SassToCssBuilder.
      *
@@ -120,6 +533,86 @@ public class SassToCss extends DefaultTask {
         this.classpath = classpath;
     }
 
+    /**
+     * Returns true if the sass files are processed inside the Gradle process, false if a new java process is
+     * forked for every run.
+     *
+     * @return true if the sass files are processed inside the Gradle process, false otherwise
+     */
+    public Boolean getInProcess() {
+        return inProcess;
+    }
+
+    /**
+     * Set to true to process the sass files inside the Gradle process. The classes of the sass engine are kept
+     * loaded between runs for as long as the classpath and the appServerPortalDir do not change.
+     *
+     * @param inProcess true to process the sass files inside the Gradle process, false otherwise
+     */
+    public void setInProcess(Boolean inProcess) {
+        this.inProcess = inProcess;
+    }
+
+    /**
+     * Returns the maximum number of sass to css builders that run at the same time.
+     *
+     * @return the maximum number of sass to css builders that run at the same time
+     */
+    public Integer getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of sass to css builders that run at the same time. Changed stylesheets in folders
+     * that do not contain each other are compiled by separate builders. When the builder runs inside the Gradle
+     * process the folders are compiled one after another. If unset this value defaults to 1
+     *
+     * @param parallelism the maximum number of sass to css builders that run at the same time
+     */
+    public void setParallelism(Integer parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the folder that holds compiled stylesheets by the content of the stylesheet and everything it
+     * imports.
+     *
+     * @return the folder that holds compiled stylesheets or null if compiled stylesheets are not cached
+     */
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Sets the folder that holds compiled stylesheets by the content of the stylesheet and everything it imports.
+     * The folder can be shared by any number of projects and builds. A stylesheet that is found in this folder is
+     * not compiled.
+     *
+     * @param cacheDir the folder that holds compiled stylesheets
+     */
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Returns the maximum size in bytes of the folder that holds compiled stylesheets.
+     *
+     * @return the maximum size in bytes of the folder that holds compiled stylesheets
+     */
+    public Long getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    /**
+     * Sets the maximum size in bytes of the folder that holds compiled stylesheets. When the folder grows beyond
+     * this size the stylesheets that were not used for the longest time are deleted.
+     *
+     * @param cacheMaxSize the maximum size in bytes of the folder that holds compiled stylesheets
+     */
+    public void setCacheMaxSize(Long cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
     /**
      * Returns the appServerPortalDir. A file pointing to the exploded Liferay web application.
      *
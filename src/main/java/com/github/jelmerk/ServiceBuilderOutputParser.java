@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the output of a ServiceBuilder run line by line as it is produced. Every line is passed on to Gradle's
+ * logging straight away; only the lines that explain a failure are retained, up to a fixed maximum, so memory use
+ * does not grow with the size of the service.
+ * <p/>
+ * A run failed when ServiceBuilder printed an exception stack trace, logged a message at ERROR level or exited with
+ * a nonzero status. ServiceBuilder catches most exceptions itself, so a zero exit code alone does not mean it
+ * succeeded. The "Building" and "Writing" lines name entities and files, so they never indicate a failure, even
+ * when an entity is called ErrorLog.
+ * <p/>
+ * The time between lines is attributed to the phase the line belongs to, based on the "Writing" lines ServiceBuilder
+ * prints for every file it writes. ServiceBuilder formats every java file with Jalopy right before writing it,
+ * so the formatting time is part of the phase of the file being formatted.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ServiceBuilderOutputParser {
+
+    private static final int MAX_FAILURE_LINES = 200;
+
+    private static final Pattern EXCEPTION_PATTERN =
+            Pattern.compile("^(Caused by: )?([\\w$]+\\.)+[\\w$]*(Exception|Error|Throwable)(: .*)?$");
+
+    private static final Pattern LOG4J_ERROR_PATTERN = Pattern.compile("^([\\d:,.\\- ]+ )?ERROR \\[.*");
+
+    private static final Pattern STACK_FRAME_PATTERN = Pattern.compile("^\\s+(at |\\.\\.\\. \\d+ more).*");
+
+    private static final String PHASE_MODEL_PARSE = "model parse";
+    private static final String PHASE_MODEL = "model";
+    private static final String PHASE_PERSISTENCE = "persistence";
+    private static final String PHASE_SERVICES = "services";
+    private static final String PHASE_SQL = "sql";
+    private static final String PHASE_CONFIGURATION = "configuration";
+
+    private final Logger logger;
+
+    private final List<String> failureLines = new ArrayList<String>();
+    private int droppedFailureLines;
+    private boolean failed;
+
+    private boolean inStackTrace;
+    private String currentEntity;
+
+    private final Map<String, Long> phaseTimes = new LinkedHashMap<String, Long>();
+    private String currentPhase = PHASE_MODEL_PARSE;
+    private long lastLineTime = System.currentTimeMillis();
+
+    /**
+     * Constructs a new ServiceBuilderOutputParser.
+     *
+     * @param logger the logger to pass the output on to
+     */
+    ServiceBuilderOutputParser(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Processes a line of ServiceBuilder output.
+     *
+     * @param line the line to process
+     */
+    void processLine(String line) {
+        long now = System.currentTimeMillis();
+        String phase = getPhase(line);
+
+        addPhaseTime(phase != null ? phase : currentPhase, now - lastLineTime);
+        lastLineTime = now;
+        if (phase != null) {
+            currentPhase = phase;
+        }
+
+        if (line.startsWith("Building ")) {
+            currentEntity = line.substring("Building ".length()).trim();
+        }
+
+        if (line.startsWith("Building ") || line.startsWith("Writing ")) {
+            inStackTrace = false;
+            logger.info(line);
+        } else if (EXCEPTION_PATTERN.matcher(line).matches()) {
+            inStackTrace = true;
+            addFailureLine(currentEntity != null ? "[" + currentEntity + "] " + line : line);
+        } else if (inStackTrace && STACK_FRAME_PATTERN.matcher(line).matches()) {
+            addFailureLine(line);
+        } else if (LOG4J_ERROR_PATTERN.matcher(line).matches()) {
+            inStackTrace = false;
+            addFailureLine(currentEntity != null ? "[" + currentEntity + "] " + line : line);
+        } else {
+            inStackTrace = false;
+            logger.info(line);
+        }
+    }
+
+    /**
+     * Signals the end of the output, with the exit status of the process that produced it.
+     *
+     * @param exitStatus the exit status of the ServiceBuilder process
+     */
+    void finish(int exitStatus) {
+        addPhaseTime(currentPhase, System.currentTimeMillis() - lastLineTime);
+
+        if (exitStatus != 0) {
+            failed = true;
+            failureLines.add("Service builder exited with status " + exitStatus);
+        }
+
+        if (logger.isInfoEnabled()) {
+            StringBuilder timings = new StringBuilder("Service builder timings:");
+            for (Map.Entry<String, Long> phaseTime : phaseTimes.entrySet()) {
+                timings.append(' ').append(phaseTime.getKey()).append(' ')
+                        .append(phaseTime.getValue()).append("ms,");
+            }
+            timings.setLength(timings.length() - 1);
+            logger.info(timings.toString());
+        }
+    }
+
+    /**
+     * Returns true if the output indicates ServiceBuilder failed.
+     *
+     * @return true if ServiceBuilder failed, false otherwise
+     */
+    boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns a description of why ServiceBuilder failed.
+     *
+     * @return a description of the failure
+     */
+    String getFailureSummary() {
+        StringBuilder summary = new StringBuilder("Service builder failed");
+        for (String line : failureLines) {
+            summary.append('\n').append(line);
+        }
+        if (droppedFailureLines > 0) {
+            summary.append("\n(").append(droppedFailureLines).append(" more lines)");
+        }
+        return summary.toString();
+    }
+
+    private void addFailureLine(String line) {
+        failed = true;
+        logger.error(line);
+
+        if (failureLines.size() < MAX_FAILURE_LINES) {
+            failureLines.add(line);
+        } else {
+            droppedFailureLines++;
+        }
+    }
+
+    private void addPhaseTime(String phase, long time) {
+        Long total = phaseTimes.get(phase);
+        phaseTimes.put(phase, total == null ? time : total + time);
+    }
+
+    private String getPhase(String line) {
+        if (!line.startsWith("Writing ")) {
+            return null;
+        }
+
+        String path = line.substring("Writing ".length()).replace('\\', '/');
+
+        if (path.endsWith(".sql") || path.contains("/sql/")) {
+            return PHASE_SQL;
+        }
+        if (path.contains("/service/persistence/")) {
+            return PHASE_PERSISTENCE;
+        }
+        if (path.contains("/service/")) {
+            return PHASE_SERVICES;
+        }
+        if (path.contains("/model/")) {
+            return PHASE_MODEL;
+        }
+        return PHASE_CONFIGURATION;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of ServiceBuilder runs that execute at the same time. The permits are shared by all projects
+ * in the build (and by all builds in the same Gradle daemon). Each run may change the number of permits; when
+ * projects configure a different number the most recent setting applies.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ServiceBuilderPermits {
+
+    private static final ResizableSemaphore PERMITS = new ResizableSemaphore(defaultPermits());
+
+    private static int permits = defaultPermits();
+
+    private ServiceBuilderPermits() {
+    }
+
+    /**
+     * Returns the number of permits used when none is configured: half the number of available processors.
+     *
+     * @return the default number of permits
+     */
+    static int defaultPermits() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * Acquires a permit, waiting until one is available.
+     *
+     * @param maxParallelRuns the maximum number of ServiceBuilder runs that may execute at the same time
+     * @throws InterruptedException when the current thread is interrupted while waiting
+     */
+    static void acquire(int maxParallelRuns) throws InterruptedException {
+        resize(Math.max(1, maxParallelRuns));
+        PERMITS.acquire();
+    }
+
+    /**
+     * Releases a permit acquired with {@link #acquire(int)}.
+     */
+    static void release() {
+        PERMITS.release();
+    }
+
+    private static synchronized void resize(int newPermits) {
+        if (newPermits > permits) {
+            PERMITS.release(newPermits - permits);
+        } else if (newPermits < permits) {
+            PERMITS.reducePermits(permits - newPermits);
+        }
+        permits = newPermits;
+    }
+
+    private static final class ResizableSemaphore extends Semaphore {
+
+        private ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -206,7 +206,8 @@ public class ServiceBuilderPlugin implements Plugin<Project> {
             }
 
             if (task.getApiSrcDir() == null) {
-                task.setApiSrcDir(serviceBuilderExtension.getApiSrcDir());
+                task.setApiSrcDir(serviceBuilderExtension.getUseGeneratedSourceDirs()
+                        ? serviceBuilderExtension.getGeneratedApiSrcDir() : serviceBuilderExtension.getApiSrcDir());
             }
 
             if (task.getResourceDir() == null) {
@@ -216,6 +217,41 @@ public class ServiceBuilderPlugin implements Plugin<Project> {
             if (task.getWebappSrcDir() == null) {
                 task.setWebappDir(warConvention.getWebAppDir());
             }
+
+            if (task.getUseWorker() == null) {
+                task.setUseWorker(serviceBuilderExtension.getUseWorker());
+            }
+
+            if (task.getMaxParallelRuns() == null) {
+                task.setMaxParallelRuns(serviceBuilderExtension.getMaxParallelRuns());
+            }
+
+            if (serviceBuilderExtension.getUseGeneratedSourceDirs()) {
+                if (task.getGeneratedImplSrcDir() == null) {
+                    task.setGeneratedImplSrcDir(serviceBuilderExtension.getGeneratedImplSrcDir());
+                }
+
+                if (task.getGeneratedResourceDir() == null) {
+                    task.setGeneratedResourceDir(serviceBuilderExtension.getGeneratedResourceDir());
+                }
+
+                addGeneratedSourceDirs();
+            }
+        }
+
+        private void addGeneratedSourceDirs() {
+            JavaPluginConvention javaConvention = project.getConvention().getPlugin(JavaPluginConvention.class);
+
+            SourceSet mainSourceSet = javaConvention.getSourceSets().getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+            mainSourceSet.getJava().srcDir(task.getGeneratedImplSrcDir());
+            mainSourceSet.getResources().srcDir(task.getGeneratedResourceDir());
+
+            SourceSet serviceSourceSet = javaConvention.getSourceSets().getByName(SERVICE_SOURCE_SET_NAME);
+            serviceSourceSet.getJava().srcDir(task.getApiSrcDir());
+
+            project.getTasks().getByName(mainSourceSet.getCompileJavaTaskName()).dependsOn(task);
+            project.getTasks().getByName(mainSourceSet.getProcessResourcesTaskName()).dependsOn(task);
+            project.getTasks().getByName(serviceSourceSet.getCompileJavaTaskName()).dependsOn(task);
         }
     }
 
@@ -41,6 +41,13 @@ public class ServiceBuilderPluginExtension {
     private String jalopyInputFileName;
     private String serviceInputFileName;
 
+    private boolean useWorker;
+
+    private Integer maxParallelRuns;
+
+    private boolean useGeneratedSourceDirs;
+    private String generatedSourceDirName;
+
     /**
      * Constructs a new ServiceBuilderPluginExtension.
      *
@@ -162,6 +169,93 @@ public class ServiceBuilderPluginExtension {
         this.resourceDirName = resourceDirName;
     }
 
+    /**
+     * Returns true if ServiceBuilder runs in a long lived worker process that is reused across builds,
+     * false if a new java process is forked for every run.
+     *
+     * @return true if ServiceBuilder runs in a long lived worker process, false otherwise
+     */
+    public boolean getUseWorker() {
+        return useWorker;
+    }
+
+    /**
+     * Set to true to run ServiceBuilder in a long lived worker process that is reused across builds.
+     * If unset this value defaults to false
+     *
+     * @param useWorker true to run ServiceBuilder in a long lived worker process, false otherwise
+     */
+    public void setUseWorker(boolean useWorker) {
+        this.useWorker = useWorker;
+    }
+
+    /**
+     * Returns the maximum number of ServiceBuilder runs that may execute at the same time across all projects
+     * in the build.
+     *
+     * @return the maximum number of ServiceBuilder runs that may execute at the same time
+     */
+    public int getMaxParallelRuns() {
+        if (maxParallelRuns != null) {
+            return maxParallelRuns;
+        }
+        return ServiceBuilderPermits.defaultPermits();
+    }
+
+    /**
+     * Sets the maximum number of ServiceBuilder runs that may execute at the same time across all projects
+     * in the build. If unset this value defaults to half the number of available processors.
+     *
+     * @param maxParallelRuns the maximum number of ServiceBuilder runs that may execute at the same time
+     */
+    public void setMaxParallelRuns(int maxParallelRuns) {
+        this.maxParallelRuns = maxParallelRuns;
+    }
+
+    /**
+     * Returns true if the generated code is written to folders in the build folder that are added to the source
+     * sets, false if it is written to the source folders along with the hand written code.
+     *
+     * @return true if the generated code is written to folders in the build folder, false otherwise
+     */
+    public boolean getUseGeneratedSourceDirs() {
+        return useGeneratedSourceDirs;
+    }
+
+    /**
+     * Set to true to write the generated code to folders in the build folder that are added to the source sets.
+     * Only the implementation classes that are meant to be edited by hand and the model hints are written to the
+     * source folders. If unset this value defaults to false
+     *
+     * @param useGeneratedSourceDirs true to write the generated code to folders in the build folder,
+     *                               false otherwise
+     */
+    public void setUseGeneratedSourceDirs(boolean useGeneratedSourceDirs) {
+        this.useGeneratedSourceDirs = useGeneratedSourceDirs;
+    }
+
+    /**
+     * Returns the path to the folder the generated code is written to when generated source folders are used.
+     *
+     * @return the path to the folder the generated code is written to
+     */
+    public String getGeneratedSourceDirName() {
+        if (generatedSourceDirName != null) {
+            return generatedSourceDirName;
+        }
+        return new File(project.getBuildDir(), "generated/servicebuilder").getPath();
+    }
+
+    /**
+     * Sets the path to the folder the generated code is written to when generated source folders are used.
+     * If unset this value defaults to generated/servicebuilder in the build folder
+     *
+     * @param generatedSourceDirName the path to the folder the generated code is written to
+     */
+    public void setGeneratedSourceDirName(String generatedSourceDirName) {
+        this.generatedSourceDirName = generatedSourceDirName;
+    }
+
     /**
      * Returns a file that points to the service input file. This declares the entity for which a service
      * is generated.
@@ -215,6 +309,37 @@ public class ServiceBuilderPluginExtension {
         return project.file(getResourceDirName());
     }
 
+    /**
+     * Returns the file that points to the folder where the generated service api source files are written to
+     * when generated source folders are used.
+     *
+     * @return the file that points to the folder where the generated service api source files are written to
+     */
+    public File getGeneratedApiSrcDir() {
+        return new File(project.file(getGeneratedSourceDirName()), "api");
+    }
+
+    /**
+     * Returns the file that points to the folder where the generated service implementation source files are
+     * written to when generated source folders are used.
+     *
+     * @return the file that points to the folder where the generated service implementation source files are
+     *         written to
+     */
+    public File getGeneratedImplSrcDir() {
+        return new File(project.file(getGeneratedSourceDirName()), "impl");
+    }
+
+    /**
+     * Returns the file that points to the folder where the generated resource files are written to when
+     * generated source folders are used.
+     *
+     * @return the file that points to the folder where the generated resource files are written to
+     */
+    public File getGeneratedResourceDir() {
+        return new File(project.file(getGeneratedSourceDirName()), "resources");
+    }
+
     /**
      * Configures this class from a groovy closure.
      *
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A long lived java process that runs Liferay's ServiceBuilder on request. Starting a new JVM, loading the portal
+ * classpath and warming up Jalopy and QDox is where most of the time of a forked service builder run goes, so
+ * workers are kept around across tasks and, as long as the Gradle daemon keeps this class loaded, across builds.
+ * <p/>
+ * Workers are keyed by their classpath. Because ServiceBuilder caches the model hints it finds on the classpath,
+ * the classpath includes the resource folder of the project and workers are therefore in effect per project.
+ * The model hints are read only once, so a worker whose classpath changed since it started, for instance because
+ * portlet-model-hints.xml was edited, is replaced by a new one.
+ * Every worker has a private working dir in which the requested jalopy file is staged before each run.
+ * <p/>
+ * Tasks of several projects may share a worker. A worker that is evicted or discarded while a task still uses it
+ * is stopped once the last task using it has released it.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ServiceBuilderWorker {
+
+    private static final int MAX_WORKERS = 8;
+
+    private static final long IDLE_TIMEOUT_MILLIS = 15 * 60 * 1000L;
+
+    private static final Map<String, ServiceBuilderWorker> WORKERS =
+            new LinkedHashMap<String, ServiceBuilderWorker>(16, 0.75f, true);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread("service builder worker shutdown") {
+            @Override
+            public void run() {
+                stopAll();
+            }
+        });
+    }
+
+    private final File workingDir;
+    private final Process process;
+    private final BufferedWriter requests;
+    private final BufferedReader output;
+    private final String terminator;
+    private final String classpathStamp;
+
+    private int leases;
+    private boolean retired;
+
+    private ServiceBuilderWorker(File workingDir, Process process, String terminator, String classpathStamp)
+            throws IOException {
+
+        this.workingDir = workingDir;
+        this.process = process;
+        this.terminator = terminator;
+        this.classpathStamp = classpathStamp;
+        this.requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"));
+        this.output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+    }
+
+    /**
+     * Returns a running worker for the given classpath, starting one if there is none or if the files on the
+     * classpath changed since the worker started. The worker must be handed back with {@link #release()} when the
+     * caller is done with it.
+     *
+     * @param classpath the classpath required to run ServiceBuilder
+     * @return a running worker
+     * @throws IOException when the worker process could not be started
+     */
+    static ServiceBuilderWorker obtain(List<File> classpath) throws IOException {
+        String key = classpath.toString();
+        String classpathStamp = ServiceModelFingerprint.calculateStamp(classpath);
+
+        synchronized (WORKERS) {
+            ServiceBuilderWorker worker = WORKERS.get(key);
+
+            if (worker != null) {
+                if (worker.isAlive() && worker.classpathStamp.equals(classpathStamp)) {
+                    worker.leases++;
+                    return worker;
+                }
+                WORKERS.remove(key);
+                worker.retire();
+            }
+
+            worker = start(classpath, classpathStamp);
+            worker.leases++;
+            WORKERS.put(key, worker);
+
+            evictLeastRecentlyUsed();
+
+            return worker;
+        }
+    }
+
+    /**
+     * Discards a worker, for instance because it failed to complete a request. The worker is no longer handed out
+     * and is stopped once every task using it has released it.
+     *
+     * @param worker the worker to discard
+     */
+    static void discard(ServiceBuilderWorker worker) {
+        synchronized (WORKERS) {
+            WORKERS.values().remove(worker);
+            worker.retire();
+        }
+    }
+
+    /**
+     * Hands back a worker returned by {@link #obtain(List)}.
+     */
+    void release() {
+        synchronized (WORKERS) {
+            leases--;
+            if (retired && leases == 0) {
+                stop();
+            }
+        }
+    }
+
+    /**
+     * Runs ServiceBuilder in this worker.
+     *
+     * @param jalopyFile the jalopy file that configures the formatter or null when there is none
+     * @param args       the arguments to pass to ServiceBuilder
+     * @param parser     the parser the output of the run is streamed to
+     * @return the exit status of the run
+     * @throws IOException when the worker died or could not be reached
+     */
+    synchronized int execute(File jalopyFile, List<String> args, ServiceBuilderOutputParser parser)
+            throws IOException {
+        requests.write(ServiceBuilderWorkerMain.REQUEST_START);
+        requests.newLine();
+
+        if (jalopyFile != null) {
+            requests.write(ServiceBuilderWorkerMain.JALOPY_PREFIX + jalopyFile.getAbsolutePath());
+            requests.newLine();
+        }
+
+        for (String arg : args) {
+            requests.write(ServiceBuilderWorkerMain.ARG_PREFIX + arg);
+            requests.newLine();
+        }
+
+        requests.write(ServiceBuilderWorkerMain.REQUEST_END);
+        requests.newLine();
+        requests.flush();
+
+        String line;
+        while ((line = output.readLine()) != null) {
+            if (line.startsWith(terminator)) {
+                return Integer.parseInt(line.substring(terminator.length()).trim());
+            }
+            parser.processLine(line);
+        }
+
+        throw new IOException("Service builder worker exited unexpectedly");
+    }
+
+    private boolean isAlive() {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    private void retire() {
+
+        // another task may be running a request in the worker, the last one to release it stops it
+
+        retired = true;
+        if (leases == 0) {
+            stop();
+        }
+    }
+
+    private void stop() {
+        process.destroy();
+        deleteRecursively(workingDir);
+    }
+
+    private static ServiceBuilderWorker start(List<File> classpath, String classpathStamp) throws IOException {
+        File workingDir = File.createTempFile("servicebuilder-worker", "");
+        if (!workingDir.delete() || !workingDir.mkdirs()) {
+            throw new IOException("Unable to create working dir for service builder worker");
+        }
+
+        StringBuilder classpathString = new StringBuilder();
+
+        for (File file : classpath) {
+            classpathString.append(file.getAbsolutePath()).append(File.pathSeparatorChar);
+        }
+        classpathString.append(getPluginClasspathEntry().getAbsolutePath());
+
+        String terminator = "servicebuilder-worker-" + UUID.randomUUID();
+
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        command.add("-Dexternal-properties=com/liferay/portal/tools/dependencies/portal-tools.properties");
+        command.add("-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.Log4JLogger");
+        command.add("-cp");
+        command.add(classpathString.toString());
+        command.add(ServiceBuilderWorkerMain.class.getName());
+        command.add(terminator);
+        command.add(String.valueOf(IDLE_TIMEOUT_MILLIS));
+
+        Process process = new ProcessBuilder(command)
+                .directory(workingDir)
+                .redirectErrorStream(true)
+                .start();
+
+        return new ServiceBuilderWorker(workingDir, process, terminator, classpathStamp);
+    }
+
+    private static File getPluginClasspathEntry() throws IOException {
+        try {
+            return new File(ServiceBuilderWorkerMain.class.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Unable to locate the liferay plugin on the classpath", e);
+        }
+    }
+
+    private static void evictLeastRecentlyUsed() {
+        Iterator<ServiceBuilderWorker> iterator = WORKERS.values().iterator();
+
+        while (WORKERS.size() > MAX_WORKERS && iterator.hasNext()) {
+            ServiceBuilderWorker worker = iterator.next();
+            iterator.remove();
+            worker.retire();
+        }
+    }
+
+    private static void stopAll() {
+        synchronized (WORKERS) {
+            for (ServiceBuilderWorker worker : WORKERS.values()) {
+                worker.stop();
+            }
+            WORKERS.clear();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
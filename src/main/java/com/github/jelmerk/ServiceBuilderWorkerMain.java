@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Entry point of the long lived process started by {@link ServiceBuilderWorker}. Reads service builder requests
+ * from standard in and runs them one after another, writing the output of each run followed by a terminator line
+ * to standard out.
+ * <p/>
+ * This class runs outside of Gradle and must not depend on anything but the JDK.
+ *
+ * @author Jelmer Kuperus
+ */
+public final class ServiceBuilderWorkerMain {
+
+    static final String SERVICE_BUILDER_CLASS_NAME = "com.liferay.portal.tools.servicebuilder.ServiceBuilder";
+
+    static final String REQUEST_START = "request";
+    static final String REQUEST_END = "end";
+
+    static final String JALOPY_PREFIX = "jalopy=";
+    static final String ARG_PREFIX = "arg=";
+
+    private static volatile boolean busy;
+    private static volatile long lastActivity = System.currentTimeMillis();
+
+    private static volatile boolean exitAllowed;
+    private static volatile int exitStatus;
+
+    private ServiceBuilderWorkerMain() {
+    }
+
+    /**
+     * Runs the worker.
+     *
+     * @param args the terminator that marks the end of the output of a request and the number of milliseconds
+     *             the worker may stay idle before it shuts itself down
+     * @throws IOException when reading requests fails
+     */
+    public static void main(String[] args) throws IOException {
+        String terminator = args[0];
+        long idleTimeout = Long.parseLong(args[1]);
+
+        System.setErr(System.out);
+
+        trapSystemExit();
+        scheduleIdleShutdown(idleTimeout);
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!REQUEST_START.equals(line)) {
+                continue;
+            }
+
+            File jalopyFile = null;
+            List<String> serviceBuilderArgs = new ArrayList<String>();
+
+            while ((line = in.readLine()) != null && !REQUEST_END.equals(line)) {
+                if (line.startsWith(JALOPY_PREFIX)) {
+                    jalopyFile = new File(line.substring(JALOPY_PREFIX.length()));
+                } else if (line.startsWith(ARG_PREFIX)) {
+                    serviceBuilderArgs.add(line.substring(ARG_PREFIX.length()));
+                }
+            }
+
+            busy = true;
+            try {
+                int status = buildService(jalopyFile, serviceBuilderArgs);
+                System.out.println(terminator + " " + status);
+                System.out.flush();
+            } finally {
+                lastActivity = System.currentTimeMillis();
+                busy = false;
+            }
+        }
+
+        // standard in was closed, the process that started us is gone
+
+        exit();
+    }
+
+    private static int buildService(File jalopyFile, List<String> args) {
+        try {
+            stageJalopyFile(jalopyFile);
+
+            Class<?> clazz = Class.forName(SERVICE_BUILDER_CLASS_NAME);
+            Method method = clazz.getMethod("main", String[].class);
+
+            exitStatus = 0;
+            method.invoke(null, (Object) args.toArray(new String[args.size()]));
+            return 0;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SecurityException) {
+                return exitStatus;
+            }
+            e.getCause().printStackTrace();
+            return 1;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    private static void stageJalopyFile(File jalopyFile) throws IOException {
+
+        // service builder only looks for misc/jalopy.xml relative to the working dir of the process, every worker
+        // has a private working dir so we can safely swap the file in before each run
+
+        File miscDir = new File("misc");
+        File stagedJalopyFile = new File(miscDir, "jalopy.xml");
+
+        if (jalopyFile == null) {
+            stagedJalopyFile.delete();
+            return;
+        }
+
+        if (stagedJalopyFile.length() == jalopyFile.length()
+                && stagedJalopyFile.lastModified() == jalopyFile.lastModified()) {
+            return;
+        }
+
+        miscDir.mkdirs();
+
+        InputStream in = new FileInputStream(jalopyFile);
+        try {
+            OutputStream out = new FileOutputStream(stagedJalopyFile);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+
+        stagedJalopyFile.setLastModified(jalopyFile.lastModified());
+    }
+
+    private static void trapSystemExit() {
+        System.setSecurityManager(new SecurityManager() {
+            public void checkPermission(Permission permission) {
+            }
+            public void checkExit(int status) {
+                if (!exitAllowed) {
+                    exitStatus = status;
+                    throw new SecurityException();
+                }
+            }
+        });
+    }
+
+    private static void scheduleIdleShutdown(final long idleTimeout) {
+        Timer timer = new Timer("idle shutdown", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (!busy && System.currentTimeMillis() - lastActivity > idleTimeout) {
+                    exit();
+                }
+            }
+        }, idleTimeout, idleTimeout / 10);
+    }
+
+    private static void exit() {
+        exitAllowed = true;
+        System.exit(0);
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Fingerprint of everything a ServiceBuilder run depends on: the entities declared in the service input file,
+ * the jalopy file, the ServiceBuilder classpath, the hand written implementation classes ServiceBuilder parses to
+ * generate the service and model interfaces and the arguments ServiceBuilder is invoked with.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ServiceModelFingerprint {
+
+    private static final String ENTITY_PREFIX = "entity.";
+
+    private final Map<String, String> values;
+
+    private ServiceModelFingerprint(Map<String, String> values) {
+        this.values = values;
+    }
+
+    /**
+     * Calculates the fingerprint of a ServiceBuilder run.
+     *
+     * @param serviceInputFile the service input file
+     * @param jalopyFile       the jalopy file or null if there is none
+     * @param classpath        the classpath ServiceBuilder runs with
+     * @param implSrcDir       the folder that holds the service implementation source files
+     * @param args             the arguments ServiceBuilder is invoked with
+     * @return the fingerprint
+     * @throws IOException when one of the files cannot be read
+     */
+    static ServiceModelFingerprint calculate(File serviceInputFile, File jalopyFile, Collection<File> classpath,
+                                             File implSrcDir, List<String> args) throws IOException {
+
+        Map<String, String> values = new TreeMap<String, String>();
+
+        addServiceModel(values, serviceInputFile);
+
+        values.put("jalopy", jalopyFile == null ? "none" : Checksums.checksum(jalopyFile));
+
+        values.put("classpath", calculateStamp(classpath));
+
+        MessageDigest implDigest = Checksums.newDigest();
+        addParsedImplementationClasses(implDigest, implSrcDir, "");
+        values.put("impl", Checksums.toHex(implDigest.digest()));
+
+        values.put("args", Checksums.checksum(args.toString()));
+
+        return new ServiceModelFingerprint(values);
+    }
+
+    /**
+     * Calculates a stamp of the size and modification time of files and of every file in the folders among them.
+     *
+     * @param files the files and folders
+     * @return the stamp
+     */
+    static String calculateStamp(Collection<File> files) {
+        MessageDigest digest = Checksums.newDigest();
+        for (File file : files) {
+            addFileStamps(digest, file);
+        }
+        return Checksums.toHex(digest.digest());
+    }
+
+    /**
+     * Reads a fingerprint that was previously stored with {@link #store(File)}.
+     *
+     * @param file the file to read the fingerprint from
+     * @return the fingerprint or null if the file does not exist
+     * @throws IOException when the file cannot be read
+     */
+    static ServiceModelFingerprint load(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+
+        Map<String, String> values = new TreeMap<String, String>();
+        for (String name : properties.stringPropertyNames()) {
+            values.put(name, properties.getProperty(name));
+        }
+        return new ServiceModelFingerprint(values);
+    }
+
+    /**
+     * Stores this fingerprint.
+     *
+     * @param file the file to store the fingerprint in
+     * @throws IOException when the file cannot be written
+     */
+    void store(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(values);
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "service builder fingerprint");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the names of the entities that were added, removed or changed compared to another fingerprint.
+     *
+     * @param other the fingerprint to compare with
+     * @return the names of the entities that differ
+     */
+    Set<String> getChangedEntities(ServiceModelFingerprint other) {
+        Set<String> names = new TreeSet<String>();
+        names.addAll(getEntityNames());
+        names.addAll(other.getEntityNames());
+
+        Set<String> changed = new TreeSet<String>();
+        for (String name : names) {
+            String value = values.get(ENTITY_PREFIX + name);
+            if (value == null || !value.equals(other.values.get(ENTITY_PREFIX + name))) {
+                changed.add(name);
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return values.equals(((ServiceModelFingerprint) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+
+    private Set<String> getEntityNames() {
+        Set<String> names = new TreeSet<String>();
+        for (String key : values.keySet()) {
+            if (key.startsWith(ENTITY_PREFIX)) {
+                names.add(key.substring(ENTITY_PREFIX.length()));
+            }
+        }
+        return names;
+    }
+
+    private static void addServiceModel(Map<String, String> values, File serviceInputFile) throws IOException {
+        Document document = parse(serviceInputFile);
+        Element root = document.getDocumentElement();
+
+        // everything outside of the entities (package path, namespace, exceptions etc) affects all entities
+
+        StringBuilder global = new StringBuilder();
+        appendAttributes(global, root);
+
+        NodeList children = root.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (!(child instanceof Element)) {
+                continue;
+            }
+
+            Element element = (Element) child;
+
+            if ("entity".equals(element.getTagName())) {
+                StringBuilder entity = new StringBuilder();
+                appendCanonical(entity, element);
+                values.put(ENTITY_PREFIX + element.getAttribute("name"), Checksums.checksum(entity.toString()));
+            } else {
+                appendCanonical(global, element);
+            }
+        }
+
+        values.put("model", Checksums.checksum(global.toString()));
+    }
+
+    private static Document parse(File file) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setValidating(false);
+            factory.setNamespaceAware(false);
+
+            // service.xml references the liferay dtd by url, we do not want to go online for that
+
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            return builder.parse(file);
+        } catch (ParserConfigurationException e) {
+            throw new IOException("Unable to parse " + file, e);
+        } catch (SAXException e) {
+            throw new IOException("Unable to parse " + file, e);
+        }
+    }
+
+    private static void appendCanonical(StringBuilder builder, Element element) {
+        builder.append('<').append(element.getTagName());
+        appendAttributes(builder, element);
+        builder.append('>');
+
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (child instanceof Element) {
+                appendCanonical(builder, (Element) child);
+            } else if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                builder.append(child.getNodeValue().trim());
+            }
+        }
+
+        builder.append("</").append(element.getTagName()).append('>');
+    }
+
+    private static void appendAttributes(StringBuilder builder, Element element) {
+        NamedNodeMap attributes = element.getAttributes();
+
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            sorted.put(attribute.getName(), attribute.getValue());
+        }
+
+        for (Map.Entry<String, String> attribute : sorted.entrySet()) {
+            builder.append(' ').append(attribute.getKey()).append("=\"").append(attribute.getValue()).append('"');
+        }
+    }
+
+    private static void addFileStamps(MessageDigest digest, File file) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    addFileStamps(digest, child);
+                }
+            }
+        } else {
+            Checksums.update(digest, file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified() + ';');
+        }
+    }
+
+    private static void addParsedImplementationClasses(MessageDigest digest, File dir, String relativePath)
+            throws IOException {
+
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+
+        List<File> files = new ArrayList<File>();
+
+        for (File child : children) {
+            if (child.isDirectory()) {
+                addParsedImplementationClasses(digest, child, relativePath + child.getName() + '/');
+            } else if (isParsedByServiceBuilder(relativePath, child.getName())) {
+                files.add(child);
+            }
+        }
+
+        for (File file : files) {
+            Checksums.update(digest, relativePath + file.getName());
+            Checksums.update(digest, file);
+        }
+    }
+
+    private static boolean isParsedByServiceBuilder(String relativePath, String fileName) {
+
+        // servicebuilder generates the service and model interfaces from the methods of these hand written
+        // classes, changes to any other source file do not affect its output
+
+        if (relativePath.endsWith("/service/impl/")) {
+            return fileName.endsWith("ServiceImpl.java");
+        }
+        if (relativePath.endsWith("/model/impl/")) {
+            return fileName.endsWith("Impl.java") && !fileName.endsWith("BaseImpl.java")
+                    && !fileName.endsWith("ModelImpl.java");
+        }
+        if (relativePath.endsWith("/service/persistence/")) {
+            return fileName.endsWith("FinderImpl.java");
+        }
+        return false;
+    }
+}
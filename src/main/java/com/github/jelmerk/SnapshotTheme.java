@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.EmptyFileVisitor;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Implementation of {@link org.gradle.api.Task} that assembles the complete theme, its parent theme with the diffs,
+ * the webapp folder and the compiled stylesheets of the theme itself on top, in a single folder. Themes that extend
+ * this theme use the folder as their parent theme.
+ *
+ * @author Jelmer Kuperus
+ */
+public class SnapshotTheme extends DefaultTask {
+
+    private FileCollection sourceDirs;
+
+    private List<FileTree> sourceTrees;
+
+    private File snapshotDir;
+
+    /**
+     * Performs the snapshot theme task.
+     */
+    @TaskAction
+    public void snapshotTheme() {
+
+        // when the same file exists in more than one file tree or folder the last one wins
+
+        final Map<String, File> sources = new TreeMap<String, File>();
+        for (FileTree sourceTree : getSourceTreesOrEmpty()) {
+            sourceTree.visit(new EmptyFileVisitor() {
+                @Override
+                public void visitFile(FileVisitDetails fileDetails) {
+                    sources.put(fileDetails.getRelativePath().getPathString(), fileDetails.getFile());
+                }
+            });
+        }
+        for (File sourceDir : getSourceDirsOrEmpty()) {
+            for (String path : DirectorySync.listFiles(sourceDir)) {
+                sources.put(path, new File(sourceDir, path));
+            }
+        }
+
+        try {
+            DirectorySync.mirror(sources, getSnapshotDir());
+        } catch (IOException e) {
+            throw new TaskExecutionException(this, e);
+        }
+    }
+
+    /**
+     * Returns the files in the source file trees and folders.
+     *
+     * @return the files in the source file trees and folders
+     */
+    @InputFiles
+    public FileCollection getSourceFiles() {
+        List<Object> sourceFiles = new ArrayList<Object>(getSourceTreesOrEmpty());
+        for (File sourceDir : getSourceDirsOrEmpty()) {
+            sourceFiles.add(getProject().fileTree(sourceDir));
+        }
+        return getProject().files(sourceFiles);
+    }
+
+    private List<FileTree> getSourceTreesOrEmpty() {
+        return getSourceTrees() == null ? Collections.<FileTree>emptyList() : getSourceTrees();
+    }
+
+    private Iterable<File> getSourceDirsOrEmpty() {
+        return getSourceDirs() == null ? Collections.<File>emptyList() : getSourceDirs();
+    }
+
+    /**
+     * Returns the folders that make up the theme.
+     *
+     * @return the folders that make up the theme
+     */
+    public FileCollection getSourceDirs() {
+        return sourceDirs;
+    }
+
+    /**
+     * Sets the folders that make up the theme. When a file exists in more than one folder, the one in the last
+     * folder ends up in the snapshot.
+     *
+     * @param sourceDirs the folders that make up the theme
+     */
+    public void setSourceDirs(FileCollection sourceDirs) {
+        this.sourceDirs = sourceDirs;
+    }
+
+    /**
+     * Returns the file trees that make up the theme.
+     *
+     * @return the file trees that make up the theme or null if there are none
+     */
+    public List<FileTree> getSourceTrees() {
+        return sourceTrees;
+    }
+
+    /**
+     * Sets the file trees that make up the theme, for instance the layers of a parent theme that is not merged.
+     * When a file exists in more than one file tree, the one in the last file tree ends up in the snapshot. Files in
+     * the source folders win over the files in the file trees.
+     *
+     * @param sourceTrees the file trees that make up the theme
+     */
+    public void setSourceTrees(List<FileTree> sourceTrees) {
+        this.sourceTrees = sourceTrees;
+    }
+
+    /**
+     * Returns the folder the theme is assembled in.
+     *
+     * @return the folder the theme is assembled in
+     */
+    @OutputDirectory
+    public File getSnapshotDir() {
+        return snapshotDir;
+    }
+
+    /**
+     * Sets the folder the theme is assembled in.
+     *
+     * @param snapshotDir the folder the theme is assembled in
+     */
+    public void setSnapshotDir(File snapshotDir) {
+        this.snapshotDir = snapshotDir;
+    }
+}
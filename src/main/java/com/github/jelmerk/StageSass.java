@@ -0,0 +1,219 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileTree;
+import org.gradle.api.file.EmptyFileVisitor;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskExecutionException;
+import org.gradle.api.tasks.util.PatternSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Implementation of {@link org.gradle.api.Task} that gathers the stylesheets of a number of folders in the folder
+ * the sass to css builder processes. Files are hard linked where the file system allows it and copied otherwise.
+ * Files whose source did not change since the previous run are left alone.
+ * <p/>
+ * Besides folders, the stylesheets can come from file trees that select part of a folder, such as the layers of a
+ * {@link ThemeOverlay}. The file trees are stacked below the folders.
+ *
+ * @author Jelmer Kuperus
+ */
+public class StageSass extends DefaultTask {
+
+    private static final String[] INCLUDES = {"**/*.css", "**/*.scss", "**/*.sass"};
+    private static final String[] EXCLUDES = {"**/.sass-cache/**", "WEB-INF/**"};
+
+    private FileCollection sourceDirs;
+
+    private List<FileTree> sourceTrees;
+
+    private File stagingDir;
+
+    /**
+     * Performs the stage sass task.
+     */
+    @TaskAction
+    public void stageSass() {
+        File manifestFile = new File(getTemporaryDir(), "manifest.properties");
+        FileManifest manifest = FileManifest.load(manifestFile);
+
+        Map<String, File> sources = findSources();
+
+        for (String path : manifest.getPaths()) {
+            if (!sources.containsKey(path)) {
+                new File(getStagingDir(), path).delete();
+                manifest.remove(path);
+            }
+        }
+
+        int staged = 0;
+        try {
+            for (Map.Entry<String, File> source : sources.entrySet()) {
+                File target = new File(getStagingDir(), source.getKey());
+
+                if (!manifest.isUpToDate(source.getKey(), source.getValue()) || !target.isFile()) {
+                    DirectorySync.link(source.getValue(), target);
+                    manifest.put(source.getKey(), source.getValue());
+                    staged++;
+                }
+            }
+        } catch (IOException e) {
+            throw new TaskExecutionException(this, e);
+        } finally {
+            try {
+                manifest.store(manifestFile);
+            } catch (IOException e) {
+                getLogger().warn("Unable to store the staged stylesheets manifest", e);
+            }
+        }
+
+        getLogger().info("Staged {} of {} stylesheets", staged, sources.size());
+    }
+
+    private Map<String, File> findSources() {
+
+        // when the same file exists in more than one folder the last folder wins
+
+        final Map<String, File> sources = new TreeMap<String, File>();
+        for (FileTree sourceTree : getStylesheetTrees()) {
+            sourceTree.visit(new EmptyFileVisitor() {
+                @Override
+                public void visitFile(FileVisitDetails fileDetails) {
+                    sources.put(fileDetails.getRelativePath().getPathString(), fileDetails.getFile());
+                }
+            });
+        }
+        for (File sourceDir : getSourceDirs()) {
+            if (!sourceDir.isDirectory()) {
+                continue;
+            }
+
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir(sourceDir);
+            scanner.setIncludes(INCLUDES);
+            scanner.setExcludes(EXCLUDES);
+            scanner.scan();
+
+            for (String path : scanner.getIncludedFiles()) {
+                sources.put(path.replace(File.separatorChar, '/'), new File(sourceDir, path));
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Returns the stylesheets in the source folders.
+     *
+     * @return the stylesheets in the source folders
+     */
+    @InputFiles
+    public FileCollection getSourceFiles() {
+        List<Object> sourceFiles = new ArrayList<Object>(getStylesheetTrees());
+        for (File sourceDir : getSourceDirs()) {
+            ConfigurableFileTree tree = getProject().fileTree(sourceDir);
+            tree.include(INCLUDES);
+            tree.exclude(EXCLUDES);
+            sourceFiles.add(tree);
+        }
+        return getProject().files(sourceFiles);
+    }
+
+    private List<FileTree> getStylesheetTrees() {
+        List<FileTree> stylesheetTrees = new ArrayList<FileTree>();
+        if (getSourceTrees() != null) {
+            PatternSet patterns = new PatternSet();
+            patterns.include(INCLUDES);
+            patterns.exclude(EXCLUDES);
+
+            for (FileTree sourceTree : getSourceTrees()) {
+                stylesheetTrees.add(sourceTree.matching(patterns));
+            }
+        }
+        return stylesheetTrees;
+    }
+
+    /**
+     * Returns the folders that hold the stylesheets.
+     *
+     * @return the folders that hold the stylesheets
+     */
+    public FileCollection getSourceDirs() {
+        return sourceDirs;
+    }
+
+    /**
+     * Sets the folders that hold the stylesheets. When a stylesheet exists in more than one folder, the one in the
+     * last folder is staged.
+     *
+     * @param sourceDirs the folders that hold the stylesheets
+     */
+    public void setSourceDirs(FileCollection sourceDirs) {
+        this.sourceDirs = sourceDirs;
+    }
+
+    /**
+     * Returns the file trees that hold the stylesheets.
+     *
+     * @return the file trees that hold the stylesheets or null if there are none
+     */
+    public List<FileTree> getSourceTrees() {
+        return sourceTrees;
+    }
+
+    /**
+     * Sets the file trees that hold the stylesheets. When a stylesheet exists in more than one file tree, the one
+     * in the last file tree is staged. Stylesheets in the source folders win over the stylesheets in the file trees.
+     *
+     * @param sourceTrees the file trees that hold the stylesheets
+     */
+    public void setSourceTrees(List<FileTree> sourceTrees) {
+        this.sourceTrees = sourceTrees;
+    }
+
+    /**
+     * Returns the folder the stylesheets are staged in.
+     *
+     * @return the folder the stylesheets are staged in
+     */
+    @OutputDirectory
+    public File getStagingDir() {
+        return stagingDir;
+    }
+
+    /**
+     * Sets the folder the stylesheets are staged in.
+     *
+     * @param stagingDir the folder the stylesheets are staged in
+     */
+    public void setStagingDir(File stagingDir) {
+        this.stagingDir = stagingDir;
+    }
+}
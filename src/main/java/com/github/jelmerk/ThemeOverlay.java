@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileTree;
+import org.gradle.api.file.FileTree;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A theme described as a stack of folders, for instance a Liferay base theme, the theme of a parent theme project,
+ * the diffs and the webapp folder of a theme. When a file exists in more than one layer, the file in the last layer
+ * wins. The layers are read where they are, so a merged copy of the theme is never needed.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ThemeOverlay {
+
+    private final List<Layer> layers;
+
+    /**
+     * Constructs a new ThemeOverlay.
+     *
+     * @param layers the layers of the theme, from bottom to top
+     */
+    ThemeOverlay(List<Layer> layers) {
+        this.layers = Collections.unmodifiableList(new ArrayList<Layer>(layers));
+    }
+
+    /**
+     * Returns the layers of the theme.
+     *
+     * @return the layers of the theme, from bottom to top
+     */
+    List<Layer> getLayers() {
+        return layers;
+    }
+
+    /**
+     * Returns a new overlay with additional layers on top of the layers of this overlay.
+     *
+     * @param topLayers the layers to add
+     * @return the new overlay
+     */
+    ThemeOverlay with(Layer... topLayers) {
+        List<Layer> allLayers = new ArrayList<Layer>(layers);
+        Collections.addAll(allLayers, topLayers);
+        return new ThemeOverlay(allLayers);
+    }
+
+    /**
+     * Returns a file tree for every layer.
+     *
+     * @param project the project to create the file trees for
+     * @return the file trees, from bottom to top
+     */
+    List<FileTree> getFileTrees(Project project) {
+        List<FileTree> fileTrees = new ArrayList<FileTree>();
+        for (Layer layer : layers) {
+            ConfigurableFileTree fileTree = project.fileTree(layer.getDir());
+            if (layer.getIncludes() != null) {
+                fileTree.include(layer.getIncludes());
+            }
+            if (layer.getExcludes() != null) {
+                fileTree.exclude(layer.getExcludes());
+            }
+            fileTrees.add(fileTree);
+        }
+        return fileTrees;
+    }
+
+    /**
+     * Resolves every path in the theme to the file of the layer that wins.
+     *
+     * @return the winning files by their relative path, using forward slashes
+     */
+    Map<String, File> resolve() {
+        Map<String, File> files = new TreeMap<String, File>();
+        for (Layer layer : layers) {
+            if (!layer.getDir().isDirectory()) {
+                continue;
+            }
+
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir(layer.getDir());
+            scanner.setIncludes(layer.getIncludes());
+            scanner.setExcludes(layer.getExcludes());
+            scanner.scan();
+
+            for (String path : scanner.getIncludedFiles()) {
+                files.put(path.replace(File.separatorChar, '/'), new File(layer.getDir(), path));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * A folder that is part of a theme, along with the patterns that select the files of the folder that belong to
+     * the theme.
+     */
+    static final class Layer {
+        private final File dir;
+        private final String[] includes;
+        private final String[] excludes;
+
+        /**
+         * Constructs a new Layer.
+         *
+         * @param dir      the folder
+         * @param includes comma separated Ant patterns of the files to include or null to include all files
+         * @param excludes comma separated Ant patterns of the files to exclude or null to exclude no files
+         */
+        Layer(File dir, String includes, String excludes) {
+            this.dir = dir;
+            this.includes = includes == null ? null : includes.split(",");
+            this.excludes = excludes == null ? null : excludes.split(",");
+        }
+
+        File getDir() {
+            return dir;
+        }
+
+        String[] getIncludes() {
+            return includes;
+        }
+
+        String[] getExcludes() {
+            return excludes;
+        }
+    }
+}
@@ -21,12 +21,20 @@ import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
+import org.gradle.api.file.FileCopyDetails;
+import org.gradle.api.file.FileTree;
 import org.gradle.api.invocation.Gradle;
 import org.gradle.api.plugins.WarPlugin;
 import org.gradle.api.plugins.WarPluginConvention;
 import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.bundling.War;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * Implementation of {@link Plugin} that adds tasks and configuration for creating Liferay themes.
@@ -41,11 +49,22 @@ public class ThemePlugin implements Plugin<Project> {
      */
     public static final String BUILD_THUMBNAIL_TASK_NAME = "buildThumbnail";
 
+    /**
+     * The name of the task that builds the thumbnails of all other screenshots in the diffs, such as the screenshots
+     * of the color schemes.
+     */
+    public static final String BUILD_THUMBNAILS_TASK_NAME = "buildThumbnails";
+
     /**
      * The name of the task that merges the parent theme and the diffs.
      */
     public static final String MERGE_THEME_TASK_NAME = "mergeTheme";
 
+    /**
+     * The name of the task that assembles the complete sources of the theme for themes that extend it.
+     */
+    public static final String SNAPSHOT_THEME_TASK_NAME = "snapshotTheme";
+
     /**
      * The name of the theme extension.
      */
@@ -54,6 +73,10 @@ public class ThemePlugin implements Plugin<Project> {
 
     public static final String MERGE_TASK_PARENT_SOURCE_DIR = "parentThemeContent";
 
+    private static final String SNAPSHOT_DIR = "themeSnapshot";
+
+    private static final String THUMBNAILS_DIR = "thumbnails";
+
     /**
      * {@inheritDoc}
      */
@@ -71,9 +94,13 @@ public class ThemePlugin implements Plugin<Project> {
 
         configureMergeTemplateTaskDefaults(project);
         createMergeTemplateTask(project);
+        createSnapshotThemeTask(project);
 
         configureBuildThumbnailTaskDefaults(project);
         createBuildThumbnailTask(project);
+        createBuildThumbnailsTask(project);
+
+        configureWatchTask(project);
     }
 
     private void createThemeExtension(Project project) {
@@ -90,17 +117,49 @@ public class ThemePlugin implements Plugin<Project> {
 
         ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
 
-        final Task sassToCss = project.getTasks().getByPath(SassCompilationPluginDelegate.SASS_TO_CSS_TASK_NAME);
-
         final MergeTheme mergeThemeTask = project.getTasks().create(MERGE_THEME_TASK_NAME, MergeTheme.class);
         mergeThemeTask.setThemeType(themeExtension.getThemeType());
         mergeThemeTask.setOutputDir(new File(project.getBuildDir(),MERGE_TASK_PARENT_SOURCE_DIR));
-        sassToCss.dependsOn(mergeThemeTask);
-
-        Task warTask = project.getTasks().getByName(WarPlugin.WAR_TASK_NAME);
-        warTask.dependsOn(mergeThemeTask);
 
         project.getGradle().addBuildListener(new MergeTemplateTaskBuildListener(mergeThemeTask, themeExtension, warConvention));
+
+        // the parent theme is only known once the project is evaluated, so the packaging is configured after the
+        // merge task
+
+        project.getGradle().addBuildListener(new ThemePackagingBuildListener(project, mergeThemeTask));
+    }
+
+    private void createSnapshotThemeTask(Project project) {
+        MergeTheme mergeThemeTask = (MergeTheme) project.getTasks().getByName(MERGE_THEME_TASK_NAME);
+
+        ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
+
+        SnapshotTheme task = project.getTasks().create(SNAPSHOT_THEME_TASK_NAME, SnapshotTheme.class);
+        task.setSnapshotDir(new File(project.getBuildDir(), SNAPSHOT_DIR));
+
+        project.getGradle().addBuildListener(new SnapshotThemeTaskBuildListener(task, mergeThemeTask,
+                themeExtension));
+    }
+
+    /**
+     * Returns the theme of a project as it is packaged, from the parent theme at the bottom through the diffs and
+     * the thumbnails built from the screenshots in the diffs to the webapp folder at the top. Without overlay the parent theme is the merged copy of the merge theme task, with overlay it is
+     * made of the folders the merged copy is made of.
+     *
+     * @param project    the theme project
+     * @param useOverlay whether the parent theme is read where it is
+     * @return the theme
+     */
+    static ThemeOverlay getThemeOverlay(Project project, boolean useOverlay) {
+        ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
+        WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
+        BuildThumbnails buildThumbnailsTask = (BuildThumbnails) project.getTasks()
+                .getByName(BUILD_THUMBNAILS_TASK_NAME);
+
+        return getParentThemeOverlay(project, useOverlay).with(
+                new ThemeOverlay.Layer(themeExtension.getDiffsDir(), null, null),
+                new ThemeOverlay.Layer(buildThumbnailsTask.getOutputDir(), null, null),
+                new ThemeOverlay.Layer(warConvention.getWebAppDir(), null, null));
     }
 
     private void configureBuildThumbnailTaskDefaults(Project project) {
@@ -111,12 +170,13 @@ public class ThemePlugin implements Plugin<Project> {
         WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
         ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
 
-        Task mergeTask = project.getTasks().getByName(MERGE_THEME_TASK_NAME);
-
         BuildThumbnail task = project.getTasks().create(BUILD_THUMBNAIL_TASK_NAME, BuildThumbnail.class);
 
         project.getGradle().addBuildListener(new BuildThumbnailTaskBuildListener(task, themeExtension, warConvention));
-        task.dependsOn(mergeTask);
+
+        // a merged parent theme may come with a thumbnail, in overlay mode nothing is merged
+
+        project.getGradle().addBuildListener(new MergedThemeDependencyBuildListener(task, themeExtension));
 
         task.onlyIf(new ThumbnailTaskOnlyIfSpec(themeExtension));
 
@@ -124,6 +184,87 @@ public class ThemePlugin implements Plugin<Project> {
         warTask.dependsOn(task);
     }
 
+    private void configureWatchTask(Project project) {
+        Watch watch = (Watch) project.getTasks().getByName(LiferayBasePlugin.WATCH_TASK_NAME);
+
+        // the webapp folder is last, so its files win over the diffs
+
+        watch.setSourceDirs(project.files(new ThemeSourceDirsCallable(project)));
+
+        project.getGradle().addBuildListener(new WatchTaskBuildListener(watch));
+    }
+
+    private void createBuildThumbnailsTask(Project project) {
+        ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
+
+        BuildThumbnails task = project.getTasks().create(BUILD_THUMBNAILS_TASK_NAME, BuildThumbnails.class);
+
+        // the thumbnails are packaged from the build folder as a layer of the theme, see getThemeOverlay
+
+        task.setOutputDir(new File(project.getBuildDir(), THUMBNAILS_DIR));
+
+        // the thumbnail of the main screenshot is built by buildThumbnail
+
+        task.getExcludes().add("images/screenshot.png");
+
+        project.getGradle().addBuildListener(new BuildThumbnailsTaskBuildListener(task, themeExtension));
+
+        Task warTask = project.getTasks().getByName(WarPlugin.WAR_TASK_NAME);
+        warTask.dependsOn(task);
+    }
+
+    private static ThemeOverlay getParentThemeOverlay(Project project, boolean useOverlay) {
+        MergeTheme mergeThemeTask = (MergeTheme) project.getTasks().getByName(MERGE_THEME_TASK_NAME);
+
+        if (useOverlay) {
+            return mergeThemeTask.getParentThemeOverlay();
+        }
+        return new ThemeOverlay(Collections.singletonList(
+                new ThemeOverlay.Layer(mergeThemeTask.getOutputDir(), null, null)));
+    }
+
+    private static final class WatchTaskBuildListener extends BuildAdapter {
+        private final Watch watch;
+
+        private WatchTaskBuildListener(Watch watch) {
+            this.watch = watch;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            Project project = watch.getProject();
+            ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
+
+            // files deleted from the diffs or the webapp folder are restored from the parent theme
+
+            if (watch.getBaseTrees() == null) {
+                watch.setBaseTrees(getParentThemeOverlay(project, themeExtension.getUseOverlay())
+                        .getFileTrees(project));
+            }
+        }
+    }
+
+    private static final class BuildThumbnailsTaskBuildListener extends BuildAdapter {
+        private final BuildThumbnails task;
+        private final ThemePluginExtension themeExtension;
+
+        private BuildThumbnailsTaskBuildListener(BuildThumbnails task, ThemePluginExtension themeExtension) {
+            this.task = task;
+            this.themeExtension = themeExtension;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            if (task.getSourceDir() == null) {
+                task.setSourceDir(themeExtension.getDiffsDir());
+            }
+
+            if (task.getParallelism() == null) {
+                task.setParallelism(themeExtension.getThumbnailParallelism());
+            }
+        }
+    }
+
     private static final class BuildThumbnailTaskBuildListener extends BuildAdapter {
         private final BuildThumbnail task;
         private final ThemePluginExtension themeExtension;
@@ -152,6 +293,23 @@ public class ThemePlugin implements Plugin<Project> {
         }
     }
 
+    private static final class MergedThemeDependencyBuildListener extends BuildAdapter {
+        private final Task task;
+        private final ThemePluginExtension themeExtension;
+
+        private MergedThemeDependencyBuildListener(Task task, ThemePluginExtension themeExtension) {
+            this.task = task;
+            this.themeExtension = themeExtension;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            if (!themeExtension.getUseOverlay()) {
+                task.dependsOn(task.getProject().getTasks().getByName(MERGE_THEME_TASK_NAME));
+            }
+        }
+    }
+
     private static final class BuildThumbnailTaskDefaultsBuildListener extends BuildAdapter {
         private final Project project;
 
@@ -162,19 +320,30 @@ public class ThemePlugin implements Plugin<Project> {
         @Override
         public void projectsEvaluated(Gradle gradle) {
             LiferayPluginExtension liferayExtension = project.getExtensions().getByType(LiferayPluginExtension.class);
-            project.getTasks().withType(BuildThumbnail.class, new SetBuildThumbnailDefaultsAction(liferayExtension));
+            ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
+            project.getTasks().withType(BuildThumbnail.class,
+                    new SetBuildThumbnailDefaultsAction(liferayExtension, themeExtension));
         }
 
         private static final class SetBuildThumbnailDefaultsAction implements Action<BuildThumbnail> {
             private final LiferayPluginExtension liferayExtension;
+            private final ThemePluginExtension themeExtension;
 
-            private SetBuildThumbnailDefaultsAction(LiferayPluginExtension liferayExtension) {
+            private SetBuildThumbnailDefaultsAction(LiferayPluginExtension liferayExtension,
+                                                    ThemePluginExtension themeExtension) {
                 this.liferayExtension = liferayExtension;
+                this.themeExtension = themeExtension;
             }
 
             @Override
             public void execute(BuildThumbnail task) {
-                if (task.getClasspath() == null) {
+                if (task.getInProcess() == null) {
+                    task.setInProcess(themeExtension.getThumbnailInProcess());
+                }
+
+                // the portal classpath is not needed when the thumbnail is created in process
+
+                if (task.getClasspath() == null && !task.getInProcess()) {
                     task.setClasspath(liferayExtension.getPortalClasspath());
                 }
             }
@@ -208,6 +377,98 @@ public class ThemePlugin implements Plugin<Project> {
                 task.setParentThemeProjectName(themeExtension.getParentThemeProjectName());
             }
 
+            if (task.getBaseThemeCacheDir() == null) {
+                task.setBaseThemeCacheDir(themeExtension.getBaseThemeCacheDir());
+            }
+
+            if (task.getParentThemeProjectName() != null) {
+                task.dependsOn(task.getParentThemeSnapshotTask());
+            }
+
+        }
+    }
+
+    private static final class ThemePackagingBuildListener extends BuildAdapter {
+        private final Project project;
+        private final MergeTheme mergeThemeTask;
+
+        private ThemePackagingBuildListener(Project project, MergeTheme mergeThemeTask) {
+            this.project = project;
+            this.mergeThemeTask = mergeThemeTask;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
+            WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
+
+            SassToCss sassToCss = (SassToCss) project.getTasks()
+                    .getByPath(SassCompilationPluginDelegate.SASS_TO_CSS_TASK_NAME);
+            StageSass stageSass = (StageSass) project.getTasks()
+                    .getByPath(SassCompilationPluginDelegate.STAGE_SASS_TASK_NAME);
+            War warTask = (War) project.getTasks().getByName(WarPlugin.WAR_TASK_NAME);
+
+            // the war and the sass stage read the layers below the webapp folder where they are, the webapp
+            // folder is already part of both
+
+            ThemeOverlay overlay = getThemeOverlay(project, themeExtension.getUseOverlay());
+            List<FileTree> fileTrees = overlay.getFileTrees(project);
+            List<FileTree> lowerFileTrees = fileTrees.subList(0, fileTrees.size() - 1);
+
+            stageSass.setSourceDirs(project.files(warConvention.getWebAppDir()));
+            stageSass.setSourceTrees(lowerFileTrees);
+
+            warTask.from(lowerFileTrees);
+            warTask.eachFile(new ExcludeOverlaidFilesAction(overlay, sassToCss.getOutputDir()));
+
+            if (!themeExtension.getUseOverlay()) {
+                sassToCss.dependsOn(mergeThemeTask);
+                stageSass.dependsOn(mergeThemeTask);
+                warTask.dependsOn(mergeThemeTask);
+            } else if (mergeThemeTask.getParentThemeProjectName() != null) {
+                Task parentThemeSnapshotTask = mergeThemeTask.getParentThemeSnapshotTask();
+                stageSass.dependsOn(parentThemeSnapshotTask);
+                warTask.dependsOn(parentThemeSnapshotTask);
+            }
+        }
+    }
+
+    private static final class SnapshotThemeTaskBuildListener extends BuildAdapter {
+        private final SnapshotTheme task;
+        private final MergeTheme mergeThemeTask;
+        private final ThemePluginExtension themeExtension;
+
+        private SnapshotThemeTaskBuildListener(SnapshotTheme task,
+                                               MergeTheme mergeThemeTask,
+                                               ThemePluginExtension themeExtension) {
+            this.task = task;
+            this.mergeThemeTask = mergeThemeTask;
+            this.themeExtension = themeExtension;
+        }
+
+        @Override
+        public void projectsEvaluated(Gradle gradle) {
+            if (task.getSourceDirs() != null || task.getSourceTrees() != null) {
+                return;
+            }
+
+            Project project = task.getProject();
+            SassToCss sassToCss = (SassToCss) project.getTasks()
+                    .getByPath(SassCompilationPluginDelegate.SASS_TO_CSS_TASK_NAME);
+
+            // the snapshot holds what the war holds, in the same order: the parent theme, the diffs, the
+            // thumbnails, the webapp folder and the compiled stylesheets on top. In overlay mode the parent theme
+            // is read where it is instead of from the merged copy
+
+            task.setSourceTrees(getThemeOverlay(project, themeExtension.getUseOverlay()).getFileTrees(project));
+            task.setSourceDirs(project.files(sassToCss.getOutputDir()));
+            task.dependsOn(sassToCss, project.getTasks().getByName(BUILD_THUMBNAILS_TASK_NAME));
+
+            if (!themeExtension.getUseOverlay()) {
+                task.dependsOn(mergeThemeTask);
+            } else if (mergeThemeTask.getParentThemeProjectName() != null) {
+                task.dependsOn(mergeThemeTask.getParentThemeSnapshotTask());
+            }
         }
     }
 
@@ -242,6 +503,69 @@ public class ThemePlugin implements Plugin<Project> {
         }
     }
 
+    private static final class ExcludeOverlaidFilesAction implements Action<FileCopyDetails> {
+        private final ThemeOverlay overlay;
+        private final File compiledCssDir;
+
+        private Map<String, File> resolvedFiles;
+
+        private ExcludeOverlaidFilesAction(ThemeOverlay overlay, File compiledCssDir) {
+            this.overlay = overlay;
+            this.compiledCssDir = compiledCssDir;
+        }
+
+        @Override
+        public void execute(FileCopyDetails fileCopyDetails) {
+            if (resolvedFiles == null) {
+                resolvedFiles = overlay.resolve();
+            }
+
+            String path = fileCopyDetails.getRelativePath().getPathString();
+            File file = fileCopyDetails.getFile();
+
+            File resolvedFile = resolvedFiles.get(path);
+            if (resolvedFile == null || !isOverlaidFile(path, file)) {
+                return;
+            }
+
+            // only the file of the top layer ends up in the war, unless it is replaced by a compiled stylesheet
+
+            if (!file.equals(resolvedFile)
+                    || path.startsWith(".sass-cache/") || path.contains("/.sass-cache/")
+                    || new File(compiledCssDir, path).exists()) {
+                fileCopyDetails.exclude();
+            }
+        }
+
+        private boolean isOverlaidFile(String path, File file) {
+            List<ThemeOverlay.Layer> layers = overlay.getLayers();
+
+            // the top layer is the webapp folder, the war handles its files
+
+            for (ThemeOverlay.Layer layer : layers.subList(0, layers.size() - 1)) {
+                if (file.equals(new File(layer.getDir(), path))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class ThemeSourceDirsCallable implements Callable<List<File>> {
+        private final Project project;
+
+        private ThemeSourceDirsCallable(Project project) {
+            this.project = project;
+        }
+
+        @Override
+        public List<File> call() {
+            ThemePluginExtension themeExtension = project.getExtensions().getByType(ThemePluginExtension.class);
+            WarPluginConvention warConvention = project.getConvention().getPlugin(WarPluginConvention.class);
+            return Arrays.asList(themeExtension.getDiffsDir(), warConvention.getWebAppDir());
+        }
+    }
+
     private static final class ThumbnailTaskOnlyIfSpec implements Spec<Task> {
         private final ThemePluginExtension themeExtension;
 
@@ -34,6 +34,14 @@ public class ThemePluginExtension {
 
     private String diffsDirName = "src/main/diffs";
 
+    private String baseThemeCacheDirName;
+
+    private boolean useOverlay;
+
+    private boolean thumbnailInProcess;
+
+    private int thumbnailParallelism = Runtime.getRuntime().availableProcessors();
+
     private final Project project;
 
     /**
@@ -123,6 +131,97 @@ public class ThemePluginExtension {
         this.diffsDirName = diffsDirName;
     }
 
+    /**
+     * Returns the path to the folder that holds the Liferay base themes shared by all theme projects.
+     *
+     * @return the path to the folder that holds the Liferay base themes or null if base themes are not cached
+     */
+    public String getBaseThemeCacheDirName() {
+        return baseThemeCacheDirName;
+    }
+
+    /**
+     * Sets the path to the folder that holds the Liferay base themes shared by all theme projects, for instance
+     * a folder in the Gradle user home. Theme projects hard link the files of their base theme from this folder
+     * instead of copying them. If unset base themes are not cached
+     *
+     * @param baseThemeCacheDirName the path to the folder that holds the Liferay base themes
+     */
+    public void setBaseThemeCacheDirName(String baseThemeCacheDirName) {
+        this.baseThemeCacheDirName = baseThemeCacheDirName;
+    }
+
+    /**
+     * Returns true if the war and the stylesheets are assembled from the parent theme, the diffs and the webapp
+     * folder where they are, false if they are assembled from a merged copy of the parent theme.
+     *
+     * @return true if the theme is assembled without a merged copy of the parent theme, false otherwise
+     */
+    public boolean getUseOverlay() {
+        return useOverlay;
+    }
+
+    /**
+     * Set to true to assemble the war and the stylesheets from the parent theme, the diffs and the webapp folder
+     * where they are, instead of from a merged copy of the parent theme. If unset this value defaults to false
+     *
+     * @param useOverlay true to assemble the theme without a merged copy of the parent theme, false otherwise
+     */
+    public void setUseOverlay(boolean useOverlay) {
+        this.useOverlay = useOverlay;
+    }
+
+    /**
+     * Returns true if thumbnails are created inside the Gradle process with the image support of the JDK, false if
+     * they are created by Liferay's ThumbnailBuilder.
+     *
+     * @return true if thumbnails are created inside the Gradle process, false otherwise
+     */
+    public boolean getThumbnailInProcess() {
+        return thumbnailInProcess;
+    }
+
+    /**
+     * Set to true to create thumbnails inside the Gradle process with the image support of the JDK instead of
+     * running Liferay's ThumbnailBuilder on the portal classpath. If unset this value defaults to false
+     *
+     * @param thumbnailInProcess true to create thumbnails inside the Gradle process, false otherwise
+     */
+    public void setThumbnailInProcess(boolean thumbnailInProcess) {
+        this.thumbnailInProcess = thumbnailInProcess;
+    }
+
+    /**
+     * Returns the maximum number of thumbnails that are built at the same time.
+     *
+     * @return the maximum number of thumbnails that are built at the same time
+     */
+    public int getThumbnailParallelism() {
+        return thumbnailParallelism;
+    }
+
+    /**
+     * Sets the maximum number of thumbnails that are built at the same time.
+     * If unset this value defaults to the number of available processors
+     *
+     * @param thumbnailParallelism the maximum number of thumbnails that are built at the same time
+     */
+    public void setThumbnailParallelism(int thumbnailParallelism) {
+        this.thumbnailParallelism = thumbnailParallelism;
+    }
+
+    /**
+     * Returns a file pointing to the folder that holds the Liferay base themes shared by all theme projects.
+     *
+     * @return a file pointing to the folder that holds the Liferay base themes or null if base themes are not cached
+     */
+    public File getBaseThemeCacheDir() {
+        if (baseThemeCacheDirName == null) {
+            return null;
+        }
+        return project.file(baseThemeCacheDirName);
+    }
+
     /**
      * Returns a file pointing to the folder that contains the diffs to the selected parent theme. Diffs are files that
      * overwrite files contained in the parent theme.
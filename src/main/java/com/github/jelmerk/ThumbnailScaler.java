@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates thumbnails with the image support of the JDK, as an alternative to running Liferay's ThumbnailBuilder on
+ * the portal classpath.
+ * <p/>
+ * Like ThumbnailBuilder the image is scaled down to fit the requested size while keeping its aspect ratio, and
+ * images that already fit are not scaled up. Large images are halved in a number of steps before they are scaled to
+ * their final size, which gives a much smoother result than scaling in one step.
+ *
+ * @author Jelmer Kuperus
+ */
+final class ThumbnailScaler {
+
+    private ThumbnailScaler() {
+    }
+
+    /**
+     * Creates a thumbnail in PNG format.
+     *
+     * @param originalFile  the image to create the thumbnail from
+     * @param thumbnailFile the file to write the thumbnail to
+     * @param width         the maximum width of the thumbnail
+     * @param height        the maximum height of the thumbnail
+     * @throws IOException when the image cannot be read or the thumbnail cannot be written
+     */
+    static void createThumbnail(File originalFile, File thumbnailFile, int width, int height) throws IOException {
+        BufferedImage original = ImageIO.read(originalFile);
+        if (original == null) {
+            throw new IOException("Unable to read " + originalFile + ", it is not an image in a supported format");
+        }
+
+        BufferedImage thumbnail = scale(original, width, height);
+
+        thumbnailFile.getParentFile().mkdirs();
+
+        if (!ImageIO.write(thumbnail, "png", thumbnailFile)) {
+            throw new IOException("Unable to write " + thumbnailFile);
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage original, int maxWidth, int maxHeight) {
+        double ratio = Math.min((double) maxWidth / original.getWidth(), (double) maxHeight / original.getHeight());
+        if (ratio >= 1) {
+            return original;
+        }
+
+        int targetWidth = Math.max(1, (int) Math.round(original.getWidth() * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(original.getHeight() * ratio));
+
+        BufferedImage image = original;
+
+        // bilinear scaling only looks at the nearest pixels, so every step may at most halve the image
+
+        while (image.getWidth() / 2 >= targetWidth && image.getHeight() / 2 >= targetHeight) {
+            image = resize(image, image.getWidth() / 2, image.getHeight() / 2,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+
+        return resize(image, targetWidth, targetHeight, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height, Object interpolation) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+}
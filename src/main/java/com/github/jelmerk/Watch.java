@@ -0,0 +1,431 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.file.EmptyFileVisitor;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.util.PatternSet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of {@link org.gradle.api.Task} that watches the sources of a plugin and copies every change to the
+ * exploded plugin in the application server as it happens. The task runs until Gradle is stopped.
+ * <p/>
+ * Changes are collected until no change happened for a short while and are then copied in one batch. When classes
+ * change, web.xml is touched so the application server reloads the context. Changes to descriptors are not copied,
+ * because Liferay rewrites descriptors when it deploys a plugin; run deployExploded for those.
+ * <p/>
+ * A file that is deleted from the source folders is restored from the base file trees when one of them holds it,
+ * for instance from the parent theme of a theme. When a stylesheet changes, the stylesheet the portal compiled from
+ * it is deleted from the .sass-cache folder next to it, so the portal compiles the stylesheet again.
+ *
+ * @author Jelmer Kuperus
+ */
+public class Watch extends DefaultTask {
+
+    /**
+     * The default value for the debounce property.
+     */
+    public static final long DEFAULT_DEBOUNCE = 200;
+
+    private static final String CLASSES_PATH = "WEB-INF/classes/";
+
+    private static final String WEB_XML_PATH = "WEB-INF/web.xml";
+
+    private static final String SASS_CACHE_DIR_NAME = ".sass-cache";
+
+    private FileCollection sourceDirs;
+
+    private List<FileTree> baseTrees;
+
+    private File classesDir;
+
+    private File explodedDir;
+
+    private long debounce = DEFAULT_DEBOUNCE;
+
+    /**
+     * Performs the watch task.
+     */
+    @TaskAction
+    public void watch() {
+        if (getExplodedDir() == null || !getExplodedDir().isDirectory()) {
+            throw new InvalidUserDataException("The plugin is not deployed to " + getExplodedDir() + ", please run " +
+                    LiferayBasePlugin.DEPLOY_EXPLODED_TASK_NAME + " first");
+        }
+
+        List<Root> roots = getRoots();
+
+        try {
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            try {
+                Map<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();
+                for (Root root : roots) {
+                    register(watchService, root.dir, dirs, null);
+                }
+
+                getLogger().lifecycle("Watching for changes to copy to {}, press ctrl-c to stop", getExplodedDir());
+
+                watch(watchService, dirs, roots);
+            } finally {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            throw new GradleException("Unable to watch the plugin sources", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void watch(WatchService watchService, Map<WatchKey, Path> dirs, List<Root> roots)
+            throws IOException, InterruptedException {
+
+        Set<File> changedFiles = new LinkedHashSet<File>();
+
+        while (!Thread.currentThread().isInterrupted()) {
+
+            // wait for the first change, then wait until nothing changed for a while
+
+            WatchKey key = changedFiles.isEmpty()
+                    ? watchService.take()
+                    : watchService.poll(getDebounce(), TimeUnit.MILLISECONDS);
+
+            if (key == null) {
+                copyChanges(changedFiles, roots);
+                changedFiles.clear();
+                continue;
+            }
+
+            Path dir = dirs.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    getLogger().warn("Missed changes, run {} to catch up",
+                            LiferayBasePlugin.DEPLOY_EXPLODED_TASK_NAME);
+                    continue;
+                }
+
+                File file = dir.resolve((Path) event.context()).toFile();
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && file.isDirectory()) {
+
+                    // folders are not watched recursively, new folders are registered as they appear
+
+                    register(watchService, file, dirs, changedFiles);
+                } else {
+                    changedFiles.add(file);
+                }
+            }
+
+            if (!key.reset()) {
+                dirs.remove(key);
+            }
+        }
+    }
+
+    private void register(WatchService watchService, File dir, Map<WatchKey, Path> dirs, Set<File> changedFiles)
+            throws IOException {
+
+        if (!dir.isDirectory()) {
+            return;
+        }
+
+        Path path = dir.toPath();
+        dirs.put(path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), path);
+
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        for (File child : children) {
+            if (child.isDirectory()) {
+                register(watchService, child, dirs, changedFiles);
+            } else if (changedFiles != null) {
+                changedFiles.add(child);
+            }
+        }
+    }
+
+    private void copyChanges(Set<File> changedFiles, List<Root> roots) throws IOException {
+        int copied = 0;
+        int deleted = 0;
+        boolean reload = false;
+
+        for (File file : changedFiles) {
+            Root root = findRoot(file, roots);
+            if (root == null) {
+                continue;
+            }
+
+            String relativePath = file.getAbsolutePath().substring(root.dir.getAbsolutePath().length() + 1)
+                    .replace(File.separatorChar, '/');
+            String path = root.targetPath + relativePath;
+
+            if (ExplodedDeploy.isDescriptor(path)) {
+                getLogger().warn("{} changed, run {} to deploy it", path, LiferayBasePlugin.DEPLOY_EXPLODED_TASK_NAME);
+                continue;
+            }
+
+            File source = findSource(relativePath, root, roots);
+            if (source == null && root.targetPath.isEmpty()) {
+                source = findBaseSource(relativePath);
+            }
+            File target = new File(getExplodedDir(), path);
+
+            if (source == null) {
+                if (target.isDirectory()) {
+                    DirectorySync.delete(target);
+                    deleted++;
+                } else if (target.delete()) {
+                    deleted++;
+                }
+            } else if (source.isFile()) {
+                InputStream in = new FileInputStream(source);
+                try {
+                    ExplodedDeploy.write(in, target);
+                } finally {
+                    in.close();
+                }
+                copied++;
+            } else {
+                if (target.isDirectory() && !file.exists()) {
+
+                    // a folder that hid the same folder in an earlier source folder is gone, the files it held
+                    // may now come from the earlier folder
+
+                    getLogger().warn("{} was deleted, run {} to catch up", path,
+                            LiferayBasePlugin.DEPLOY_EXPLODED_TASK_NAME);
+                }
+                continue;
+            }
+
+            if (isStylesheet(path) && deleteSassCacheEntry(path)) {
+                deleted++;
+            }
+
+            reload |= path.startsWith(CLASSES_PATH);
+        }
+
+        if (reload) {
+            new File(getExplodedDir(), WEB_XML_PATH).setLastModified(System.currentTimeMillis());
+        }
+
+        if (copied > 0 || deleted > 0) {
+            getLogger().lifecycle("Copied {} and deleted {} files{}", copied, deleted,
+                    reload ? ", the context is reloaded" : "");
+        }
+    }
+
+    private static Root findRoot(File file, List<Root> roots) {
+        String path = file.getAbsolutePath();
+        for (Root root : roots) {
+            if (path.startsWith(root.dir.getAbsolutePath() + File.separator)) {
+                return root;
+            }
+        }
+        return null;
+    }
+
+    private static File findSource(String relativePath, Root root, List<Root> roots) {
+
+        // a file in a later source folder hides the same file in an earlier one, a deleted file uncovers it
+
+        File source = null;
+        for (Root candidate : roots) {
+            if (candidate.targetPath.equals(root.targetPath)) {
+                File file = new File(candidate.dir, relativePath);
+                if (file.exists()) {
+                    source = file;
+                }
+            }
+        }
+        return source;
+    }
+
+    private File findBaseSource(String relativePath) {
+        if (getBaseTrees() == null) {
+            return null;
+        }
+
+        PatternSet patterns = new PatternSet();
+        patterns.include(relativePath);
+
+        // the last base file tree that holds the file wins, as it does when the plugin is packaged
+
+        final File[] source = new File[1];
+        for (FileTree baseTree : getBaseTrees()) {
+            baseTree.matching(patterns).visit(new EmptyFileVisitor() {
+                @Override
+                public void visitFile(FileVisitDetails fileDetails) {
+                    source[0] = fileDetails.getFile();
+                }
+            });
+        }
+        return source[0];
+    }
+
+    private static boolean isStylesheet(String path) {
+        return path.endsWith(".css") && !path.startsWith(SASS_CACHE_DIR_NAME + "/")
+                && !path.contains("/" + SASS_CACHE_DIR_NAME + "/");
+    }
+
+    private boolean deleteSassCacheEntry(String path) {
+        int index = path.lastIndexOf('/') + 1;
+        return new File(getExplodedDir(), path.substring(0, index) + SASS_CACHE_DIR_NAME + "/" + path.substring(index))
+                .delete();
+    }
+
+    private List<Root> getRoots() {
+        List<Root> roots = new ArrayList<Root>();
+        if (getSourceDirs() != null) {
+            for (File sourceDir : getSourceDirs()) {
+                roots.add(new Root(sourceDir, ""));
+            }
+        }
+        if (getClassesDir() != null) {
+            roots.add(new Root(getClassesDir(), CLASSES_PATH));
+        }
+        return roots;
+    }
+
+    /**
+     * Returns the folders that hold the web resources of the plugin.
+     *
+     * @return the folders that hold the web resources of the plugin
+     */
+    public FileCollection getSourceDirs() {
+        return sourceDirs;
+    }
+
+    /**
+     * Sets the folders that hold the web resources of the plugin. When a file exists in more than one folder, the
+     * one in the last folder is copied.
+     *
+     * @param sourceDirs the folders that hold the web resources of the plugin
+     */
+    public void setSourceDirs(FileCollection sourceDirs) {
+        this.sourceDirs = sourceDirs;
+    }
+
+    /**
+     * Returns the file trees beneath the source folders.
+     *
+     * @return the file trees beneath the source folders or null if there are none
+     */
+    public List<FileTree> getBaseTrees() {
+        return baseTrees;
+    }
+
+    /**
+     * Sets the file trees beneath the source folders, such as the parent theme of a theme. The base file trees are
+     * not watched, but a file that is deleted from the source folders is restored from the last base file tree that
+     * holds it.
+     *
+     * @param baseTrees the file trees beneath the source folders
+     */
+    public void setBaseTrees(List<FileTree> baseTrees) {
+        this.baseTrees = baseTrees;
+    }
+
+    /**
+     * Returns the folder that holds the compiled classes of the plugin.
+     *
+     * @return the folder that holds the compiled classes of the plugin
+     */
+    public File getClassesDir() {
+        return classesDir;
+    }
+
+    /**
+     * Sets the folder that holds the compiled classes of the plugin.
+     *
+     * @param classesDir the folder that holds the compiled classes of the plugin
+     */
+    public void setClassesDir(File classesDir) {
+        this.classesDir = classesDir;
+    }
+
+    /**
+     * Returns the folder the application server runs the plugin from.
+     *
+     * @return the folder the application server runs the plugin from
+     */
+    public File getExplodedDir() {
+        return explodedDir;
+    }
+
+    /**
+     * Sets the folder the application server runs the plugin from.
+     *
+     * @param explodedDir the folder the application server runs the plugin from
+     */
+    public void setExplodedDir(File explodedDir) {
+        this.explodedDir = explodedDir;
+    }
+
+    /**
+     * Returns the number of milliseconds without changes after which the collected changes are copied.
+     *
+     * @return the number of milliseconds without changes after which the collected changes are copied
+     */
+    public long getDebounce() {
+        return debounce;
+    }
+
+    /**
+     * Sets the number of milliseconds without changes after which the collected changes are copied.
+     * If unset this value defaults to 200
+     *
+     * @param debounce the number of milliseconds without changes after which the collected changes are copied
+     */
+    public void setDebounce(long debounce) {
+        this.debounce = debounce;
+    }
+
+    private static final class Root {
+        private final File dir;
+        private final String targetPath;
+
+        private Root(File dir, String targetPath) {
+            this.dir = dir;
+            this.targetPath = targetPath;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ContentAddressedCache}
+ *
+ * @author Jelmer Kuperus
+ */
+public class ContentAddressedCacheTest {
+
+    File dir;
+    File cacheDir;
+    ContentAddressedCache cache;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("contentaddressedcache", "");
+        dir.delete();
+        dir.mkdirs();
+
+        cacheDir = new File(dir, "cache");
+        cache = new ContentAddressedCache(cacheDir, 10);
+    }
+
+    @After
+    public void tearDown() {
+        DirectorySync.delete(dir);
+    }
+
+    @Test
+    public void testGetStoredFile() throws IOException {
+        File source = write(new File(dir, "main.css"), "body");
+        cache.put("aa01", source);
+
+        File target = new File(dir, "restored/main.css");
+        assertTrue(cache.get("aa01", target));
+        assertTrue(DirectorySync.hasSameContent(source, target));
+
+        assertFalse(cache.get("bb01", new File(dir, "missing/main.css")));
+    }
+
+    @Test
+    public void testTrimDeletesLeastRecentlyUsedFiles() throws IOException {
+        cache.put("aa01", write(new File(dir, "a.css"), "aaaa"));
+        cache.put("bb01", write(new File(dir, "b.css"), "bbbb"));
+        cache.put("cc01", write(new File(dir, "c.css"), "cccc"));
+
+        new File(cacheDir, "aa/aa01").setLastModified(1000000L);
+        new File(cacheDir, "bb/bb01").setLastModified(3000000L);
+        new File(cacheDir, "cc/cc01").setLastModified(2000000L);
+
+        // 12 bytes are stored, removing the least recently used file brings the cache within its 10 bytes
+
+        cache.trim();
+
+        assertFalse(cache.get("aa01", new File(dir, "restored/a.css")));
+        assertTrue(cache.get("bb01", new File(dir, "restored/b.css")));
+        assertTrue(cache.get("cc01", new File(dir, "restored/c.css")));
+    }
+
+    private static File write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
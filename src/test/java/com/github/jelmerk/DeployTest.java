@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link Deploy}
+ *
+ * @author Jelmer Kuperus
+ */
+public class DeployTest {
+
+    File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("deploy", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        DirectorySync.delete(dir);
+    }
+
+    @Test
+    public void testExplodedDeployFallbackIsRecorded() throws IOException {
+        File stateFile = new File(dir, "state/deployed.properties");
+        File targetFile = new File(dir, "deploy/portlet.war");
+
+        File warA = write(new File(dir, "a/portlet.war"), "a");
+        File warB = write(new File(dir, "b/portlet.war"), "b");
+
+        Deploy.copyAndRecord(warA, targetFile, stateFile);
+        assertTrue(Deploy.isDeployed(warA, targetFile, stateFile));
+
+        // the exploded deploy task falls back to the autodeploy dir with a newer plugin
+
+        Deploy.copyAndRecord(warB, targetFile, stateFile);
+
+        assertFalse(Deploy.isDeployed(warA, targetFile, stateFile));
+        assertTrue(Deploy.isDeployed(warB, targetFile, stateFile));
+    }
+
+    private static File write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ExplodedDeploy}
+ *
+ * @author Jelmer Kuperus
+ */
+public class ExplodedDeployTest {
+
+    @Test
+    public void testChangedAndRemovedEntries() {
+        Map<String, String> deployed = new HashMap<String, String>();
+        deployed.put("view.jsp", "1:10");
+        deployed.put("css/main.css", "2:20");
+        deployed.put("js/main.js", "3:30");
+
+        Map<String, String> entries = new HashMap<String, String>();
+        entries.put("view.jsp", "1:10");
+        entries.put("css/main.css", "4:21");
+        entries.put("edit.jsp", "5:50");
+
+        assertEquals(new HashSet<String>(Arrays.asList("css/main.css", "edit.jsp")),
+                ExplodedDeploy.getChangedEntries(entries, deployed));
+        assertEquals(Collections.singleton("js/main.js"), ExplodedDeploy.getRemovedEntries(entries, deployed));
+    }
+
+    @Test
+    public void testDescriptors() {
+        assertTrue(ExplodedDeploy.isDescriptor("WEB-INF/web.xml"));
+        assertTrue(ExplodedDeploy.isDescriptor("WEB-INF/liferay-plugin-package.properties"));
+        assertTrue(ExplodedDeploy.isDescriptor("META-INF/context.xml"));
+        assertTrue(ExplodedDeploy.isDescriptor("META-INF/MANIFEST.MF"));
+
+        assertFalse(ExplodedDeploy.isDescriptor("WEB-INF/classes/portlet.properties"));
+        assertFalse(ExplodedDeploy.isDescriptor("WEB-INF/lib/util-java.jar"));
+        assertFalse(ExplodedDeploy.isDescriptor("META-INF/resources/main.css"));
+        assertFalse(ExplodedDeploy.isDescriptor("view.jsp"));
+    }
+}
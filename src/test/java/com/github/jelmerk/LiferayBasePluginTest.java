@@ -70,6 +70,17 @@ public class LiferayBasePluginTest {
         assertTrue(task.getDependsOn().contains(project.getTasks().getByName(WarPlugin.WAR_TASK_NAME)));
     }
 
+    @Test
+    public void testCreatedDirectDeployAllTask() {
+        plugin.apply(project);
+        AggregateDirectDeploy task = (AggregateDirectDeploy) project.getTasks()
+                .getByName(LiferayBasePlugin.DIRECT_DEPLOY_ALL_TASK_NAME);
+        assertNotNull(task);
+        assertTrue(task.getDirectDeploys().contains(project.getTasks()
+                .getByName(LiferayBasePlugin.DIRECT_DEPLOY_TASK_NAME)));
+        assertTrue(task.getDependsOn().contains(project.getTasks().getByName(WarPlugin.WAR_TASK_NAME)));
+    }
+
     @Test
     public void testDeployTaskAutoDeployDirDefault() {
         plugin.apply(project);
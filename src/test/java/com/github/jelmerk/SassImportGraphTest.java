@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link SassImportGraph}
+ *
+ * @author Jelmer Kuperus
+ */
+public class SassImportGraphTest {
+
+    private static final List<String> ENTRIES = Arrays.asList("main.css", "print.css");
+
+    File dir;
+    File baseDir;
+    File stateFile;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("sassimportgraph", "");
+        dir.delete();
+        dir.mkdirs();
+
+        baseDir = new File(dir, "css");
+        stateFile = new File(dir, "graph.properties");
+
+        write(new File(baseDir, "main.css"), "@import \"base\";\nbody { color: $color; }");
+        write(new File(baseDir, "print.css"), "@import 'colors';\n");
+        write(new File(baseDir, "_base.scss"), "@import \"colors\";\n");
+        write(new File(baseDir, "_colors.scss"), "$color: red;\n");
+
+        calculate().store(stateFile);
+    }
+
+    @After
+    public void tearDown() {
+        DirectorySync.delete(dir);
+    }
+
+    @Test
+    public void testUnchangedEntriesAreNotChanged() throws IOException {
+        assertTrue(calculate().getChangedEntries().isEmpty());
+    }
+
+    @Test
+    public void testChangedPartialChangesEveryEntryThatImportsIt() throws IOException {
+        write(new File(baseDir, "_colors.scss"), "$color: blue;\n");
+
+        assertEquals(new TreeSet<String>(ENTRIES), calculate().getChangedEntries());
+    }
+
+    @Test
+    public void testChangedPartialInChainChangesOnlyEntriesThatImportIt() throws IOException {
+        write(new File(baseDir, "_base.scss"), "@import \"colors\";\n$margin: 0;\n");
+
+        assertEquals(Collections.singleton("main.css"), calculate().getChangedEntries());
+    }
+
+    @Test
+    public void testForgottenEntryIsChanged() throws IOException {
+        SassImportGraph graph = calculate();
+        graph.forget("print.css");
+        graph.store(stateFile);
+
+        assertEquals(Collections.singleton("print.css"), calculate().getChangedEntries());
+    }
+
+    @Test
+    public void testRemovedEntries() throws IOException {
+        SassImportGraph graph = SassImportGraph.load(stateFile);
+        graph.calculateEntryKeys(baseDir, Collections.singleton("main.css"), Collections.<File>emptyList(), "");
+
+        assertEquals(Collections.singleton("print.css"), graph.getRemovedEntries());
+    }
+
+    private SassImportGraph calculate() throws IOException {
+        SassImportGraph graph = SassImportGraph.load(stateFile);
+        graph.calculateEntryKeys(baseDir, ENTRIES, Collections.<File>emptyList(), "");
+        return graph;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
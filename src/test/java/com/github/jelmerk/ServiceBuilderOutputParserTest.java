@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.gradle.api.logging.Logging;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link ServiceBuilderOutputParser}
+ *
+ * @author Jelmer Kuperus
+ */
+public class ServiceBuilderOutputParserTest {
+
+    ServiceBuilderOutputParser parser;
+
+    @Before
+    public void setup() {
+        parser = new ServiceBuilderOutputParser(Logging.getLogger(ServiceBuilderOutputParserTest.class));
+    }
+
+    @Test
+    public void testEntityNamedErrorIsNoFailure() {
+        parser.processLine("Building ErrorLog");
+        parser.processLine("Writing src/com/example/model/ErrorLogModel.java");
+        parser.processLine("Writing src/com/example/service/persistence/ErrorLogPersistence.java");
+        parser.finish(0);
+
+        assertFalse(parser.hasFailed());
+    }
+
+    @Test
+    public void testExceptionIsFailure() {
+        parser.processLine("Building ErrorLog");
+        parser.processLine("java.lang.IllegalArgumentException: Unknown column type");
+        parser.processLine("\tat com.liferay.portal.tools.servicebuilder.ServiceBuilder.<init>(ServiceBuilder.java:123)");
+        parser.finish(0);
+
+        assertTrue(parser.hasFailed());
+    }
+
+    @Test
+    public void testErrorLevelLogLineIsFailure() {
+        parser.processLine("10:20:30,123 ERROR [ServiceBuilder:123] Unable to write service.xml");
+        parser.finish(0);
+
+        assertTrue(parser.hasFailed());
+    }
+
+    @Test
+    public void testNonZeroExitStatusIsFailure() {
+        parser.processLine("Building ErrorLog");
+        parser.finish(1);
+
+        assertTrue(parser.hasFailed());
+    }
+}
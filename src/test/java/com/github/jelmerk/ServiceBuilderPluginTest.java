@@ -16,11 +16,17 @@
 package com.github.jelmerk;
 
 import org.gradle.api.Project;
+import org.gradle.api.plugins.JavaPluginConvention;
 import org.gradle.api.plugins.WarPlugin;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.invocation.DefaultGradle;
 import org.gradle.testfixtures.ProjectBuilder;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -29,11 +35,13 @@ import static org.junit.Assert.assertTrue;
 public class ServiceBuilderPluginTest {
 
     Project project;
+    DefaultGradle gradle;
     ServiceBuilderPlugin plugin;
 
     @Before
     public void setup() {
         project = ProjectBuilder.builder().build();
+        gradle = (DefaultGradle) project.getGradle();
         plugin = new ServiceBuilderPlugin();
     }
 
@@ -51,4 +59,45 @@ public class ServiceBuilderPluginTest {
         assertTrue(project.getExtensions().getByName(ServiceBuilderPlugin.SERVICEBUILDER_EXTENSION_NAME)
                 instanceof ServiceBuilderPluginExtension);
     }
+
+    @Test
+    public void testUseWorkerDefault() {
+        plugin.apply(project);
+
+        ServiceBuilderPluginExtension extension = project.getExtensions()
+                .getByType(ServiceBuilderPluginExtension.class);
+        extension.setUseWorker(true);
+
+        BuildService task = (BuildService) project.getTasks()
+                .getByName(ServiceBuilderPlugin.GENERATE_SERVICE_TASK_NAME);
+        gradle.getBuildListenerBroadcaster().projectsEvaluated(gradle);
+
+        assertEquals(Boolean.TRUE, task.getUseWorker());
+    }
+
+    @Test
+    public void testUseGeneratedSourceDirs() {
+        plugin.apply(project);
+
+        ServiceBuilderPluginExtension extension = project.getExtensions()
+                .getByType(ServiceBuilderPluginExtension.class);
+        extension.setUseGeneratedSourceDirs(true);
+
+        BuildService task = (BuildService) project.getTasks()
+                .getByName(ServiceBuilderPlugin.GENERATE_SERVICE_TASK_NAME);
+        gradle.getBuildListenerBroadcaster().projectsEvaluated(gradle);
+
+        File generatedDir = new File(project.getBuildDir(), "generated/servicebuilder");
+
+        assertEquals(new File(generatedDir, "api"), task.getApiSrcDir());
+        assertEquals(new File(generatedDir, "impl"), task.getGeneratedImplSrcDir());
+        assertEquals(new File(generatedDir, "resources"), task.getGeneratedResourceDir());
+
+        JavaPluginConvention javaConvention = project.getConvention().getPlugin(JavaPluginConvention.class);
+        SourceSet mainSourceSet = javaConvention.getSourceSets().getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+
+        assertTrue(mainSourceSet.getJava().getSrcDirs().contains(new File(generatedDir, "impl")));
+        assertTrue(project.getTasks().getByName(mainSourceSet.getCompileJavaTaskName()).getDependsOn()
+                .contains(task));
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jelmerk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link ThemeOverlay}
+ *
+ * @author Jelmer Kuperus
+ */
+public class ThemeOverlayTest {
+
+    File dir;
+    File baseThemeDir;
+    File diffsDir;
+    ThemeOverlay baseTheme;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("themeoverlay", "");
+        dir.delete();
+        dir.mkdirs();
+
+        baseThemeDir = new File(dir, "_unstyled");
+        diffsDir = new File(dir, "diffs");
+
+        touch(new File(baseThemeDir, "css/main.css"));
+        touch(new File(baseThemeDir, "templates/init.vm"));
+        touch(new File(baseThemeDir, "templates/portal_normal.vm"));
+        touch(new File(baseThemeDir, "templates/portal_normal.ftl"));
+
+        // the layers of the _unstyled base theme
+
+        baseTheme = new ThemeOverlay(Arrays.asList(
+                new ThemeOverlay.Layer(baseThemeDir, null, "templates/**"),
+                new ThemeOverlay.Layer(baseThemeDir, "templates/*.vm", "templates/init.vm")));
+    }
+
+    @After
+    public void tearDown() {
+        DirectorySync.delete(dir);
+    }
+
+    @Test
+    public void testPatternsSelectFiles() {
+        Map<String, File> files = baseTheme.resolve();
+
+        assertEquals(new TreeSet<String>(Arrays.asList("css/main.css", "templates/portal_normal.vm")),
+                files.keySet());
+        assertEquals(new File(baseThemeDir, "templates/portal_normal.vm"), files.get("templates/portal_normal.vm"));
+    }
+
+    @Test
+    public void testLaterLayerWins() throws IOException {
+        touch(new File(diffsDir, "css/main.css"));
+        touch(new File(diffsDir, "templates/init.vm"));
+
+        Map<String, File> files = baseTheme.with(new ThemeOverlay.Layer(diffsDir, null, null)).resolve();
+
+        // a later layer wins, also over a path an earlier layer excluded
+
+        assertEquals(new File(diffsDir, "css/main.css"), files.get("css/main.css"));
+        assertEquals(new File(diffsDir, "templates/init.vm"), files.get("templates/init.vm"));
+        assertEquals(new File(baseThemeDir, "templates/portal_normal.vm"), files.get("templates/portal_normal.vm"));
+    }
+
+    private static void touch(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+}
@@ -17,10 +17,19 @@ package com.github.jelmerk;
 
 import org.gradle.api.Project;
 import org.gradle.api.plugins.WarPlugin;
+import org.gradle.api.plugins.WarPluginConvention;
+import org.gradle.invocation.DefaultGradle;
 import org.gradle.testfixtures.ProjectBuilder;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -52,4 +61,65 @@ public class ThemePluginTest {
                 instanceof ThemePluginExtension);
     }
 
+    @Test
+    public void testMergeThemeDependsOnParentThemeProject() {
+        Project parentProject = ProjectBuilder.builder().withName("parent").withParent(project).build();
+        Project childProject = ProjectBuilder.builder().withName("child").withParent(project).build();
+
+        new ThemePlugin().apply(parentProject);
+        new ThemePlugin().apply(childProject);
+
+        childProject.getExtensions().getByType(ThemePluginExtension.class).setParentThemeProjectName(":parent");
+
+        DefaultGradle gradle = (DefaultGradle) project.getGradle();
+        gradle.getBuildListenerBroadcaster().projectsEvaluated(gradle);
+
+        MergeTheme mergeTheme = (MergeTheme) childProject.getTasks().getByName(ThemePlugin.MERGE_THEME_TASK_NAME);
+        assertTrue(mergeTheme.getDependsOn().contains(
+                parentProject.getTasks().getByName(ThemePlugin.SNAPSHOT_THEME_TASK_NAME)));
+    }
+
+    @Test
+    public void testMergedAndOverlaidThemesHaveTheSameFiles() throws IOException {
+        Project parentProject = ProjectBuilder.builder().withName("parent").withParent(project).build();
+        Project childProject = ProjectBuilder.builder().withName("child").withParent(project).build();
+
+        new ThemePlugin().apply(parentProject);
+        new ThemePlugin().apply(childProject);
+
+        ThemePluginExtension themeExtension = childProject.getExtensions().getByType(ThemePluginExtension.class);
+        themeExtension.setParentThemeProjectName(":parent");
+
+        DefaultGradle gradle = (DefaultGradle) project.getGradle();
+        gradle.getBuildListenerBroadcaster().projectsEvaluated(gradle);
+
+        File snapshotDir = ((SnapshotTheme) parentProject.getTasks()
+                .getByName(ThemePlugin.SNAPSHOT_THEME_TASK_NAME)).getSnapshotDir();
+        File diffsDir = themeExtension.getDiffsDir();
+        File webAppDir = childProject.getConvention().getPlugin(WarPluginConvention.class).getWebAppDir();
+
+        touch(new File(snapshotDir, "css/main.css"));
+        touch(new File(snapshotDir, "images/logo.png"));
+        touch(new File(snapshotDir, "WEB-INF/liferay-plugin-package.properties"));
+        touch(new File(diffsDir, "css/custom.css"));
+        touch(new File(diffsDir, "images/logo.png"));
+        touch(new File(webAppDir, "templates/portal_normal.vm"));
+
+        ((MergeTheme) childProject.getTasks().getByName(ThemePlugin.MERGE_THEME_TASK_NAME)).mergeTheme();
+
+        Map<String, File> merged = ThemePlugin.getThemeOverlay(childProject, false).resolve();
+        Map<String, File> overlaid = ThemePlugin.getThemeOverlay(childProject, true).resolve();
+
+        assertEquals(new TreeSet<String>(Arrays.asList("css/custom.css", "css/main.css", "images/logo.png",
+                "templates/portal_normal.vm")), merged.keySet());
+        assertEquals(merged.keySet(), overlaid.keySet());
+        assertEquals(new File(diffsDir, "images/logo.png"), merged.get("images/logo.png"));
+        assertEquals(new File(diffsDir, "images/logo.png"), overlaid.get("images/logo.png"));
+    }
+
+    private static void touch(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+
 }